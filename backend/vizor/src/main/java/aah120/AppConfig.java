@@ -1,8 +1,44 @@
 package aah120;
 
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
 @Configuration
+@EnableScheduling
 public class AppConfig {
 
+	// runs background query jobs; bounded so a burst of submissions is refused rather than queued without limit
+	@Bean(destroyMethod = "shutdownNow")
+	public ExecutorService queryExecutor(@Value("${vizor.jobs.threads}") int threads,
+			@Value("${vizor.jobs.queue-capacity}") int queueCapacity) {
+		return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("vizor-query-"));
+	}
+
+	// side stages of a request (e.g. the complete-weak check) that run next to its data fetch; when full the
+	// request thread runs the stage itself, so overload degrades to running the stages one after another
+	@Bean(destroyMethod = "shutdownNow")
+	public ExecutorService pipelineExecutor(@Value("${vizor.pipeline.threads}") int threads,
+			@Value("${vizor.pipeline.queue-capacity}") int queueCapacity) {
+		return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("vizor-pipeline-"),
+				new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+
+	// runs the charts of a vf-execute batch side by side; when full the streaming thread runs a chart itself
+	@Bean(destroyMethod = "shutdownNow")
+	public ExecutorService batchExecutor(@Value("${vizor.batch.threads}") int threads,
+			@Value("${vizor.batch.queue-capacity}") int queueCapacity) {
+		return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("vizor-batch-"),
+				new ThreadPoolExecutor.CallerRunsPolicy());
+	}
 }
\ No newline at end of file
@@ -0,0 +1,235 @@
+package aah120.api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+// Little-endian layout:
+//   "VZB1", u32 header length, header (UTF-8 JSON), u16 column count,
+//   per column: u8 type, u16 name length, name (UTF-8)
+//   then batches of: u32 row count (0 ends the stream), and per column a null bitmap
+//   (ceil(rows / 8) bytes, bit set = null) followed by its values:
+//     INT64 / TIMESTAMP (epoch ms) as i64, FLOAT64 as f64, DATE (epoch days) / TIME (ms of day) as i32,
+//     BOOL as u8, STRING as u32 byte length + UTF-8 per row
+@Component
+public class BinaryResultEncoder {
+
+  public static final byte INT64 = 1;
+  public static final byte FLOAT64 = 2;
+  public static final byte BOOL = 3;
+  public static final byte DATE = 4;
+  public static final byte TIMESTAMP = 5;
+  public static final byte TIME = 6;
+  public static final byte STRING = 7;
+
+  private static final byte[] MAGIC = "VZB1".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] NO_BYTES = new byte[0];
+
+  private final int batchRows;
+
+  public BinaryResultEncoder(@Value("${vizor.binary.batch-rows}") int batchRows) {
+    this.batchRows = batchRows;
+  }
+
+  public void write(ResultSet resultSet, byte[] header, OutputStream out) throws SQLException, IOException {
+
+    ResultSetMetaData metaData = resultSet.getMetaData();
+    int columnCount = metaData.getColumnCount();
+
+    byte[] types = new byte[columnCount];
+    byte[][] names = new byte[columnCount][];
+    int schemaBytes = 0;
+    for (int i = 1; i <= columnCount; i++) {
+      types[i - 1] = typeOf(metaData.getColumnType(i), metaData.getColumnTypeName(i));
+      names[i - 1] = metaData.getColumnName(i).getBytes(StandardCharsets.UTF_8);
+      schemaBytes += 3 + names[i - 1].length;
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(MAGIC.length + 4 + header.length + 2 + schemaBytes)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    buffer.put(MAGIC).putInt(header.length).put(header).putShort((short) columnCount);
+    for (int c = 0; c < columnCount; c++) {
+      buffer.put(types[c]).putShort((short) names[c].length).put(names[c]);
+    }
+    out.write(buffer.array(), 0, buffer.position());
+
+    // one reusable block per column, sized for a full batch
+    long[][] longs = new long[columnCount][];
+    double[][] doubles = new double[columnCount][];
+    byte[][][] strings = new byte[columnCount][][];
+    boolean[][] nulls = new boolean[columnCount][batchRows];
+    for (int c = 0; c < columnCount; c++) {
+      if (types[c] == FLOAT64) {
+        doubles[c] = new double[batchRows];
+      } else if (types[c] == STRING) {
+        strings[c] = new byte[batchRows][];
+      } else {
+        longs[c] = new long[batchRows];
+      }
+    }
+
+    int rows = 0;
+    while (resultSet.next()) {
+      for (int c = 0; c < columnCount; c++) {
+        int i = c + 1;
+        switch (types[c]) {
+          case INT64:
+            longs[c][rows] = resultSet.getLong(i);
+            break;
+          case FLOAT64:
+            doubles[c][rows] = resultSet.getDouble(i);
+            break;
+          case BOOL:
+            longs[c][rows] = resultSet.getBoolean(i) ? 1 : 0;
+            break;
+          case DATE:
+            LocalDate date = resultSet.getObject(i, LocalDate.class);
+            longs[c][rows] = date == null ? 0 : date.toEpochDay();
+            break;
+          case TIMESTAMP:
+            Timestamp timestamp = resultSet.getTimestamp(i);
+            longs[c][rows] = timestamp == null ? 0 : timestamp.getTime();
+            break;
+          case TIME:
+            LocalTime time = resultSet.getObject(i, LocalTime.class);
+            longs[c][rows] = time == null ? 0 : time.toNanoOfDay() / 1_000_000;
+            break;
+          default:
+            String value = resultSet.getString(i);
+            strings[c][rows] = value == null ? NO_BYTES : value.getBytes(StandardCharsets.UTF_8);
+        }
+        nulls[c][rows] = resultSet.wasNull();
+      }
+
+      if (++rows == batchRows) {
+        writeBatch(out, rows, types, longs, doubles, strings, nulls);
+        rows = 0;
+      }
+    }
+
+    if (rows > 0) {
+      writeBatch(out, rows, types, longs, doubles, strings, nulls);
+    }
+
+    out.write(new byte[4]);
+    out.flush();
+  }
+
+  private void writeBatch(OutputStream out, int rows, byte[] types, long[][] longs, double[][] doubles,
+      byte[][][] strings, boolean[][] nulls) throws IOException {
+
+    int bitmapBytes = (rows + 7) / 8;
+
+    int size = 4;
+    for (int c = 0; c < types.length; c++) {
+      size += bitmapBytes + blockSize(types[c], rows, strings[c]);
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(rows);
+
+    for (int c = 0; c < types.length; c++) {
+      byte[] bitmap = new byte[bitmapBytes];
+      for (int r = 0; r < rows; r++) {
+        if (nulls[c][r]) {
+          bitmap[r >> 3] |= 1 << (r & 7);
+        }
+      }
+      buffer.put(bitmap);
+
+      switch (types[c]) {
+        case INT64:
+        case TIMESTAMP:
+          buffer.asLongBuffer().put(longs[c], 0, rows);
+          buffer.position(buffer.position() + rows * 8);
+          break;
+        case FLOAT64:
+          buffer.asDoubleBuffer().put(doubles[c], 0, rows);
+          buffer.position(buffer.position() + rows * 8);
+          break;
+        case DATE:
+        case TIME:
+          for (int r = 0; r < rows; r++) {
+            buffer.putInt((int) longs[c][r]);
+          }
+          break;
+        case BOOL:
+          for (int r = 0; r < rows; r++) {
+            buffer.put((byte) longs[c][r]);
+          }
+          break;
+        default:
+          for (int r = 0; r < rows; r++) {
+            buffer.putInt(strings[c][r].length).put(strings[c][r]);
+          }
+      }
+    }
+
+    out.write(buffer.array(), 0, buffer.position());
+  }
+
+  private int blockSize(byte type, int rows, byte[][] strings) {
+    switch (type) {
+      case INT64:
+      case TIMESTAMP:
+      case FLOAT64:
+        return rows * 8;
+      case DATE:
+      case TIME:
+        return rows * 4;
+      case BOOL:
+        return rows;
+      default:
+        int size = rows * 4;
+        for (int r = 0; r < rows; r++) {
+          size += strings[r].length;
+        }
+        return size;
+    }
+  }
+
+  // pgjdbc reports timetz as TIME but will not read it as a LocalTime, so it goes as a string with its offset
+  private byte typeOf(int sqlType, String typeName) {
+    if ("timetz".equals(typeName)) {
+      return STRING;
+    }
+
+    switch (sqlType) {
+      case Types.TINYINT:
+      case Types.SMALLINT:
+      case Types.INTEGER:
+      case Types.BIGINT:
+        return INT64;
+      case Types.REAL:
+      case Types.FLOAT:
+      case Types.DOUBLE:
+      case Types.NUMERIC:
+      case Types.DECIMAL:
+        return FLOAT64;
+      case Types.BIT:
+      case Types.BOOLEAN:
+        return BOOL;
+      case Types.DATE:
+        return DATE;
+      case Types.TIMESTAMP:
+      case Types.TIMESTAMP_WITH_TIMEZONE:
+        return TIMESTAMP;
+      case Types.TIME:
+        return TIME;
+      default:
+        return STRING;
+    }
+  }
+}
@@ -0,0 +1,181 @@
+package aah120.api;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.List;
+import java.util.Objects;
+
+import aah120.dto.VisualisationOption;
+
+public class ChartQuery {
+
+  private final String pattern;
+  private final List<VisualisationOption> visualisations;
+  private final String sql;
+  private final List<Object> params;
+  private final CompleteWeakCheck completeWeakCheck;
+  private final Keyset keyset;
+  private final Integer linePoints;
+  private final ChartQuery lineSeries;
+  private final Integer bins;
+
+  public ChartQuery(String pattern, List<VisualisationOption> visualisations, String sql, List<Object> params) {
+    this(pattern, visualisations, sql, params, null, null, null, null, null);
+  }
+
+  private ChartQuery(String pattern, List<VisualisationOption> visualisations, String sql, List<Object> params,
+      CompleteWeakCheck completeWeakCheck, Keyset keyset, Integer linePoints, ChartQuery lineSeries,
+      Integer bins) {
+    this.pattern = pattern;
+    this.visualisations = visualisations;
+    this.sql = sql;
+    this.params = params;
+    this.completeWeakCheck = completeWeakCheck;
+    this.keyset = keyset;
+    this.linePoints = linePoints;
+    this.lineSeries = lineSeries;
+    this.bins = bins;
+  }
+
+  // the optional parts of a query are set on a copy, one per planner that needs them
+
+  public ChartQuery withCompleteWeakCheck(CompleteWeakCheck completeWeakCheck) {
+    return new ChartQuery(pattern, visualisations, sql, params, completeWeakCheck, keyset, linePoints, lineSeries,
+        bins);
+  }
+
+  public ChartQuery withKeyset(Keyset keyset) {
+    return new ChartQuery(pattern, visualisations, sql, params, completeWeakCheck, keyset, linePoints, lineSeries,
+        bins);
+  }
+
+  public ChartQuery withLinePoints(Integer linePoints, ChartQuery lineSeries) {
+    return new ChartQuery(pattern, visualisations, sql, params, completeWeakCheck, keyset, linePoints, lineSeries,
+        bins);
+  }
+
+  public ChartQuery withBins(Integer bins) {
+    return new ChartQuery(pattern, visualisations, sql, params, completeWeakCheck, keyset, linePoints, lineSeries,
+        bins);
+  }
+
+  public String getPattern() {
+    return pattern;
+  }
+
+  public List<VisualisationOption> getVisualisations() {
+    return visualisations;
+  }
+
+  public String getSql() {
+    return sql;
+  }
+
+  // null unless the visualisations include stacked-bar or spider, which still depend on the check
+  public CompleteWeakCheck getCompleteWeakCheck() {
+    return completeWeakCheck;
+  }
+
+  // null unless the query reads one page of a keyset-paged result
+  public Keyset getKeyset() {
+    return keyset;
+  }
+
+  // null unless the rows are downsampled to at most this many points per line series
+  public Integer getLinePoints() {
+    return linePoints;
+  }
+
+  // one row per line series, for the planner to estimate how many there are; null unless linePoints is set
+  public ChartQuery getLineSeries() {
+    return lineSeries;
+  }
+
+  // null unless the query aggregates points into the cells of a bins x bins grid
+  public Integer getBins() {
+    return bins;
+  }
+
+  // values for the ? placeholders in the sql, in order
+  public List<Object> getParams() {
+    return params;
+  }
+
+  // the row limits among the params, which unlike filter values can change the plan
+  public List<Object> getLimits() {
+    return params.stream().filter(param -> param instanceof LimitParam).toList();
+  }
+
+  public PreparedStatement prepare(Connection connection) throws SQLException {
+    PreparedStatement statement = connection.prepareStatement(sql);
+    try {
+      bind(statement);
+    } catch (SQLException e) {
+      statement.close();
+      throw e;
+    }
+    return statement;
+  }
+
+  public void bind(PreparedStatement statement) throws SQLException {
+    for (int i = 0; i < params.size(); i++) {
+      Object param = params.get(i);
+      if (param instanceof UntypedParam) {
+        statement.setObject(i + 1, ((UntypedParam) param).getText(), Types.OTHER);
+      } else if (param instanceof LimitParam) {
+        statement.setInt(i + 1, ((LimitParam) param).getLimit());
+      } else {
+        statement.setObject(i + 1, param);
+      }
+    }
+  }
+
+  // text sent without a type, so postgres reads it as a literal of whatever type it is compared with
+  public static class UntypedParam {
+
+    private final String text;
+
+    public UntypedParam(String text) {
+      this.text = text;
+    }
+
+    public String getText() {
+      return text;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof UntypedParam && text.equals(((UntypedParam) o).text);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(UntypedParam.class, text);
+    }
+  }
+
+  public static class LimitParam {
+
+    private final int limit;
+
+    public LimitParam(int limit) {
+      this.limit = limit;
+    }
+
+    public int getLimit() {
+      return limit;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof LimitParam && limit == ((LimitParam) o).limit;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(LimitParam.class, limit);
+    }
+  }
+}
@@ -0,0 +1,24 @@
+package aah120.api;
+
+import com.fasterxml.jackson.databind.util.RawValue;
+
+public class ChartRows {
+
+  private final RawValue rows;
+  private final Integer bins;
+
+  public ChartRows(RawValue rows, Integer bins) {
+    this.rows = rows;
+    this.bins = bins;
+  }
+
+  // the rows as a JSON array, already serialised
+  public RawValue getRows() {
+    return rows;
+  }
+
+  // null unless the rows are the cells of a bins x bins grid rather than one row per entity
+  public Integer getBins() {
+    return bins;
+  }
+}
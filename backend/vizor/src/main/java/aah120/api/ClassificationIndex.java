@@ -0,0 +1,43 @@
+package aah120.api;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import aah120.dto.VFResponse;
+
+public class ClassificationIndex {
+
+  private final Map<String, TableClassification> tables;
+  private final Map<String, VFResponse> options;
+  private final Map<String, Boolean> completeWeak;
+
+  public ClassificationIndex(Map<String, TableClassification> tables) {
+    this.tables = tables;
+    this.options = new ConcurrentHashMap<>();
+    this.completeWeak = new ConcurrentHashMap<>();
+  }
+
+  // in metadata order
+  public Collection<TableClassification> getTables() {
+    return tables.values();
+  }
+
+  public TableClassification get(String tableName) {
+    return tables.get(tableName);
+  }
+
+  public VFResponse options(String tableName, String visId, Supplier<VFResponse> generator) {
+    return options.computeIfAbsent(tableName + "/" + visId, key -> generator.get());
+  }
+
+  // null until the data has been checked under this version
+  public Boolean getCompleteWeak(String key) {
+    return completeWeak.get(key);
+  }
+
+  public void putCompleteWeak(String key, boolean complete) {
+    completeWeak.put(key, complete);
+  }
+}
@@ -0,0 +1,130 @@
+package aah120.api;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import aah120.dto.ColumnarColumn;
+import aah120.dto.ColumnarData;
+
+@Component
+public class ColumnarEncoder {
+
+  private static final Set<Integer> STRING_TYPES = Set.of(Types.CHAR, Types.VARCHAR, Types.LONGVARCHAR, Types.NCHAR,
+      Types.NVARCHAR, Types.LONGNVARCHAR);
+
+  private final double maxDictionaryRatio;
+
+  public ColumnarEncoder(@Value("${vizor.columnar.max-dictionary-ratio}") double maxDictionaryRatio) {
+    this.maxDictionaryRatio = maxDictionaryRatio;
+  }
+
+  // row by row, for reads that may stop early
+  public ResourceGovernor.RowSink<ColumnarData> open(ResultSetMetaData metaData) throws SQLException {
+
+    int columnCount = metaData.getColumnCount();
+
+    ColumnBuilder[] builders = new ColumnBuilder[columnCount];
+    for (int i = 1; i <= columnCount; i++) {
+      builders[i - 1] = new ColumnBuilder(metaData.getColumnName(i), metaData.getColumnTypeName(i),
+          STRING_TYPES.contains(metaData.getColumnType(i)));
+    }
+
+    return new ResourceGovernor.RowSink<>() {
+
+      private int rowCount;
+
+      @Override
+      public long add(ResultSet resultSet) throws SQLException {
+        // strings are counted as if not dictionary-coded, so this errs on the high side
+        long bytes = 0;
+        for (int i = 1; i <= columnCount; i++) {
+          ColumnBuilder builder = builders[i - 1];
+          Object value;
+          if (builder.string) {
+            String string = resultSet.getString(i);
+            builder.addString(string);
+            value = string;
+          } else {
+            value = resultSet.getObject(i);
+            builder.values.add(value);
+          }
+          bytes += ResultCache.estimateCell(value);
+        }
+        rowCount++;
+
+        return bytes;
+      }
+
+      @Override
+      public ColumnarData finish() {
+        List<ColumnarColumn> columns = new ArrayList<>(columnCount);
+        for (ColumnBuilder builder : builders) {
+          columns.add(builder.build(rowCount));
+        }
+
+        return new ColumnarData(rowCount, columns);
+      }
+    };
+  }
+
+  // strings are always dictionary-coded while reading, and expanded at the end if that did not pay off
+  private class ColumnBuilder {
+
+    private final String name;
+    private final String type;
+    private final boolean string;
+    private final List<Object> values = new ArrayList<>();
+    private final Map<String, Integer> codesByValue = new HashMap<>();
+    private final List<String> dictionary = new ArrayList<>();
+    private int[] codes = new int[64];
+    private int size;
+
+    ColumnBuilder(String name, String type, boolean string) {
+      this.name = name;
+      this.type = type;
+      this.string = string;
+    }
+
+    void addString(String value) {
+      int code = -1;
+      if (value != null) {
+        code = codesByValue.computeIfAbsent(value, v -> {
+          dictionary.add(v);
+          return dictionary.size() - 1;
+        });
+      }
+
+      if (size == codes.length) {
+        codes = Arrays.copyOf(codes, size * 2);
+      }
+      codes[size++] = code;
+    }
+
+    ColumnarColumn build(int rowCount) {
+      if (!string) {
+        return new ColumnarColumn(name, type, values);
+      }
+
+      if (rowCount > 0 && dictionary.size() <= maxDictionaryRatio * rowCount) {
+        return new ColumnarColumn(name, type, dictionary, Arrays.copyOf(codes, size));
+      }
+
+      List<Object> expanded = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        expanded.add(codes[i] == -1 ? null : dictionary.get(codes[i]));
+      }
+      return new ColumnarColumn(name, type, expanded);
+    }
+  }
+}
@@ -0,0 +1,29 @@
+package aah120.api;
+
+import java.util.List;
+
+// the columns a weak-entity plan needs checked before stacked-bar and spider can be offered
+public class CompleteWeakCheck {
+
+  private final List<String> tableNames;
+  private final List<String> pkNames;
+  private final List<String> fkNames;
+
+  public CompleteWeakCheck(List<String> tableNames, List<String> pkNames, List<String> fkNames) {
+    this.tableNames = tableNames;
+    this.pkNames = pkNames;
+    this.fkNames = fkNames;
+  }
+
+  public List<String> getTableNames() {
+    return tableNames;
+  }
+
+  public List<String> getPkNames() {
+    return pkNames;
+  }
+
+  public List<String> getFkNames() {
+    return fkNames;
+  }
+}
@@ -0,0 +1,175 @@
+package aah120.api;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.dbcp2.BasicDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import aah120.dto.PoolStats;
+
+@Component
+public class ConnectionPoolRegistry {
+
+  private final int initialSize;
+  private final int minIdle;
+  private final int maxTotal;
+  private final long maxWaitMillis;
+  private final long idleEvictionMillis;
+  private final int prepareThreshold;
+  private final int maxOpenPreparedStatements;
+
+  // one pool per database + credentials, shared by every session that logged in with them
+  private final Map<String, Pool> pools = new ConcurrentHashMap<>();
+
+  public ConnectionPoolRegistry(@Value("${vizor.pool.initial-size}") int initialSize,
+      @Value("${vizor.pool.min-idle}") int minIdle,
+      @Value("${vizor.pool.max-total}") int maxTotal,
+      @Value("${vizor.pool.max-wait-ms}") long maxWaitMillis,
+      @Value("${vizor.pool.idle-eviction-ms}") long idleEvictionMillis,
+      @Value("${vizor.datasource.prepare-threshold}") int prepareThreshold,
+      @Value("${vizor.datasource.max-open-prepared-statements}") int maxOpenPreparedStatements) {
+    this.initialSize = initialSize;
+    this.minIdle = minIdle;
+    this.maxTotal = maxTotal;
+    this.maxWaitMillis = maxWaitMillis;
+    this.idleEvictionMillis = idleEvictionMillis;
+    this.prepareThreshold = prepareThreshold;
+    this.maxOpenPreparedStatements = maxOpenPreparedStatements;
+  }
+
+  // every session holds a reference to its pool from login until it is closed, so a pool is only ever closed
+  // once nobody is using it or logging in with it
+  public void acquire(String poolKey, String connectionKey, String url, String username, String password) {
+    pools.compute(poolKey, (key, pool) -> {
+      Pool acquired = pool != null ? pool : new Pool(connectionKey, createDataSource(url, username, password));
+      acquired.references++;
+      return acquired;
+    });
+  }
+
+  public void release(String poolKey) {
+    pools.computeIfPresent(poolKey, (key, pool) -> {
+      if (--pool.references > 0) {
+        return pool;
+      }
+      pool.close();
+      return null;
+    });
+  }
+
+  public Connection getConnection(String poolKey) throws SQLException {
+
+    Pool pool = pools.get(poolKey);
+    if (pool == null) {
+      throw new SQLException("No open connection pool for this session");
+    }
+
+    return pool.borrow();
+  }
+
+  // the pools of one database + user, whatever password each was opened with
+  public List<PoolStats> getStats(String connectionKey) {
+
+    List<PoolStats> stats = new ArrayList<>();
+    for (Pool pool : pools.values()) {
+      if (pool.connectionKey.equals(connectionKey)) {
+        stats.add(pool.stats());
+      }
+    }
+
+    return stats;
+  }
+
+  @PreDestroy
+  public void close() {
+    pools.values().forEach(Pool::close);
+    pools.clear();
+  }
+
+  private BasicDataSource createDataSource(String url, String username, String password) {
+
+    BasicDataSource dataSource = new BasicDataSource();
+    dataSource.setDriverClassName("org.postgresql.Driver");
+    dataSource.setUrl(url);
+    dataSource.setUsername(username);
+    dataSource.setPassword(password);
+
+    // initialSize connections are opened by the first borrow, which login does straight away
+    dataSource.setInitialSize(initialSize);
+    dataSource.setMinIdle(minIdle);
+    dataSource.setMaxIdle(maxTotal);
+    dataSource.setMaxTotal(maxTotal);
+    dataSource.setMaxWaitMillis(maxWaitMillis);
+
+    // idle connections above minIdle are closed once unused for idleEvictionMillis
+    dataSource.setMinEvictableIdleTimeMillis(idleEvictionMillis);
+    dataSource.setTimeBetweenEvictionRunsMillis(Math.max(idleEvictionMillis / 2, 1000));
+
+    // generated queries are parameterised, so repeated chart shapes reuse one server-side prepared statement
+    dataSource.addConnectionProperty("prepareThreshold", String.valueOf(prepareThreshold));
+    dataSource.setPoolPreparedStatements(true);
+    dataSource.setMaxOpenPreparedStatements(maxOpenPreparedStatements);
+
+    return dataSource;
+  }
+
+  private static class Pool {
+
+    private final String connectionKey;
+    private final BasicDataSource dataSource;
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong saturatedBorrows = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    // only read and written inside compute on the pools map
+    private int references;
+
+    private Pool(String connectionKey, BasicDataSource dataSource) {
+      this.connectionKey = connectionKey;
+      this.dataSource = dataSource;
+    }
+
+    private Connection borrow() throws SQLException {
+
+      // every connection already handed out means this borrow has to wait for one to come back
+      if (dataSource.getNumActive() >= dataSource.getMaxTotal()) {
+        saturatedBorrows.incrementAndGet();
+      }
+
+      long start = System.nanoTime();
+      try {
+        return dataSource.getConnection();
+      } finally {
+        long waited = System.nanoTime() - start;
+        borrows.incrementAndGet();
+        totalWaitNanos.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+      }
+    }
+
+    private PoolStats stats() {
+      long count = borrows.get();
+      double meanWaitMillis = count == 0 ? 0 : totalWaitNanos.get() / 1e6 / count;
+
+      return new PoolStats(connectionKey, dataSource.getNumActive(), dataSource.getNumIdle(),
+          dataSource.getMaxTotal(), count, saturatedBorrows.get(), meanWaitMillis, maxWaitNanos.get() / 1e6);
+    }
+
+    private void close() {
+      try {
+        dataSource.close();
+      } catch (SQLException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+}
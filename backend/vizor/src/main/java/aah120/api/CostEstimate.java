@@ -0,0 +1,21 @@
+package aah120.api;
+
+// the planner's view of a query: total cost in postgres cost units, and rows returned
+public class CostEstimate {
+
+  private final double totalCost;
+  private final double rows;
+
+  public CostEstimate(double totalCost, double rows) {
+    this.totalCost = totalCost;
+    this.rows = rows;
+  }
+
+  public double getTotalCost() {
+    return totalCost;
+  }
+
+  public double getRows() {
+    return rows;
+  }
+}
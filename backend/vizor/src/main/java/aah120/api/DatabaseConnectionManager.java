@@ -1,36 +1,77 @@
 package aah120.api;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
-import org.apache.commons.dbcp2.BasicDataSource;
-
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import aah120.dto.PoolStats;
+
 @Component
 public class DatabaseConnectionManager {
 
-	private BasicDataSource dataSource;
+	private final ConnectionPoolRegistry poolRegistry;
+	private final long sessionIdleTimeoutMillis;
+	private final Map<String, DatabaseSession> sessions = new ConcurrentHashMap<>();
+	private final List<Consumer<String>> lastSessionListeners = new CopyOnWriteArrayList<>();
+
+	public DatabaseConnectionManager(ConnectionPoolRegistry poolRegistry,
+			@Value("${vizor.session.idle-timeout-ms}") long sessionIdleTimeoutMillis) {
+		this.poolRegistry = poolRegistry;
+		this.sessionIdleTimeoutMillis = sessionIdleTimeoutMillis;
+	}
 
-	public void setConnectionDetails(String host, String port, String databaseName, String username, String password) {
+	public DatabaseSession openSession(String host, String port, String databaseName, String username, String password)
+			throws SQLException {
 		String url = "jdbc:postgresql://" + host + ":" + port + "/" + databaseName;
 
-		this.dataSource = new BasicDataSource();
-		this.dataSource.setDriverClassName("org.postgresql.Driver");
-		this.dataSource.setUrl(url);
-		this.dataSource.setUsername(username);
-		this.dataSource.setPassword(password);
+		String connectionKey = identify(url + "\n" + username, 16);
+		String poolKey = identify(url + "\n" + username + "\n" + password, 32);
+		poolRegistry.acquire(poolKey, connectionKey, url, username, password);
+
+		DatabaseSession session = new DatabaseSession(UUID.randomUUID().toString(), connectionKey, poolKey,
+				username);
+		sessions.put(session.getId(), session);
 
 		try {
-			Connection connection = getConnection();
+			// also opens the pool's initial connections
+			Connection connection = poolRegistry.getConnection(poolKey);
 			closeConnection(connection);
 		} catch (SQLException e) {
-			e.printStackTrace();
+			// don't keep a pool around for credentials that do not work, unless another session is using it
+			closeSession(session);
+			throw e;
+		}
+
+		return session;
+	}
+
+	// every request names its own session, so no client ever runs on another login's pool
+	public DatabaseSession getSession(String sessionId) {
+		DatabaseSession session = sessionId == null ? null : sessions.get(sessionId);
+
+		if (session == null) {
+			throw new SessionRequiredException();
 		}
+
+		session.touch();
+		return session;
 	}
 
-	public Connection getConnection() throws SQLException {
-		return dataSource.getConnection();
+	public Connection getConnection(DatabaseSession session) throws SQLException {
+		return poolRegistry.getConnection(session.getPoolKey());
 	}
 
 	public void closeConnection(Connection connection) throws SQLException {
@@ -39,4 +80,51 @@ public class DatabaseConnectionManager {
 		}
 	}
 
+	// the listener is given the connection key of a database + user once no session for it is left
+	public void onLastSessionClosed(Consumer<String> listener) {
+		lastSessionListeners.add(listener);
+	}
+
+	// whether any session is still logged in to the database + user
+	public boolean hasSessions(String connectionKey) {
+		return sessions.values().stream().anyMatch(s -> s.getConnectionKey().equals(connectionKey));
+	}
+
+	public List<PoolStats> getPoolStats(DatabaseSession session) {
+		return poolRegistry.getStats(session.getConnectionKey());
+	}
+
+	@Scheduled(fixedDelayString = "${vizor.session.eviction-interval-ms}")
+	public void evictIdleSessions() {
+		long now = System.currentTimeMillis();
+		for (DatabaseSession session : sessions.values()) {
+			if (now - session.getLastUsed() > sessionIdleTimeoutMillis) {
+				closeSession(session);
+			}
+		}
+	}
+
+	// releases the session's pool exactly once, however many threads try to close it
+	private void closeSession(DatabaseSession session) {
+		if (sessions.remove(session.getId(), session)) {
+			poolRegistry.release(session.getPoolKey());
+
+			String connectionKey = session.getConnectionKey();
+			if (!hasSessions(connectionKey)) {
+				lastSessionListeners.forEach(listener -> listener.accept(connectionKey));
+			}
+		}
+	}
+
+	// stable, filesystem-safe identity, without exposing what it was derived from
+	private String identify(String value, int length) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] hash = digest.digest(value.getBytes(StandardCharsets.UTF_8));
+			return HexFormat.of().formatHex(hash, 0, length);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
 }
@@ -1,27 +1,51 @@
 package aah120.api;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
 import java.sql.Connection;
-import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.databind.util.RawValue;
 
+import aah120.dto.BatchResult;
+import aah120.dto.CacheStats;
 import aah120.dto.Column;
+import aah120.dto.ColumnarData;
 import aah120.dto.DatabaseDetails;
 import aah120.dto.ForeignKey;
+import aah120.dto.GovernorStats;
+import aah120.dto.JobStatus;
 import aah120.dto.DFRequest;
 import aah120.dto.DFResponse;
+import aah120.dto.PoolStats;
 import aah120.dto.TableMetadata;
 import aah120.dto.VFRequest;
 import aah120.dto.VFResponse;
@@ -42,108 +66,468 @@ public class DatabaseService {
   List<String> ONE_MANY_VIS_TYPES = List.of("treemap", "hierarchy-tree", "circle-packing");
   List<String> MANY_MANY_VIS_TYPES = List.of("sankey", "network");
   List<String> REFLEXIVE_VIS_TYPES = List.of("chord");
+  List<String> COMPLETE_WEAK_VIS_TYPES = List.of("stacked-bar", "spider");
 
-  private final DatabaseConnectionManager connectionManager;
-  private final List<TableMetadata> databaseMetadata;
+  Set<String> NUM_COMPARATORS = Set.of("=", "!=", "<>", "<", ">", "<=", ">=");
+  Set<String> LEX_COMPARATORS = Set.of("=", "!=", "<>", "LIKE", "NOT LIKE", "ILIKE", "NOT ILIKE");
 
-  public DatabaseService(DatabaseConnectionManager connectionManager) {
+  private static final String TOP_N_RANK = "__vizor_rank";
+  private static final String TOP_N_OTHER = "Other";
+
+  private final DatabaseConnectionManager connectionManager;
+  private final MetadataIntrospector introspector;
+  private final MetadataSnapshotStore snapshotStore;
+  private final ResultStreamer resultStreamer;
+  private final ColumnarEncoder columnarEncoder;
+  private final ResultCache resultCache;
+  private final QueryJobManager jobManager;
+  private final ExecutorService pipelineExecutor;
+  private final ExecutorService batchExecutor;
+  private final PreviewSampler previewSampler;
+  private final QueryCostGuard costGuard;
+  private final ResourceGovernor governor;
+  private final JsonRowSerializer rowSerializer;
+  private final KeysetPager keysetPager;
+  private final LineDownsampler lineDownsampler;
+  private final long binningMinRows;
+  private final int bins;
+
+  // one context per database + user, shared by its sessions; readers take the current one without locking
+  private final Map<String, AtomicReference<MetadataContext>> contexts = new ConcurrentHashMap<>();
+
+  public DatabaseService(DatabaseConnectionManager connectionManager, MetadataIntrospector introspector,
+      MetadataSnapshotStore snapshotStore, ResultStreamer resultStreamer, ColumnarEncoder columnarEncoder,
+      ResultCache resultCache, QueryJobManager jobManager,
+      @Qualifier("pipelineExecutor") ExecutorService pipelineExecutor,
+      @Qualifier("batchExecutor") ExecutorService batchExecutor, PreviewSampler previewSampler,
+      QueryCostGuard costGuard, ResourceGovernor governor, JsonRowSerializer rowSerializer,
+      KeysetPager keysetPager, LineDownsampler lineDownsampler,
+      @Value("${vizor.binning.min-rows}") long binningMinRows, @Value("${vizor.binning.bins}") int bins) {
     this.connectionManager = connectionManager;
-    this.databaseMetadata = new ArrayList<>();
+    this.introspector = introspector;
+    this.snapshotStore = snapshotStore;
+    this.resultStreamer = resultStreamer;
+    this.columnarEncoder = columnarEncoder;
+    this.resultCache = resultCache;
+    this.jobManager = jobManager;
+    this.pipelineExecutor = pipelineExecutor;
+    this.batchExecutor = batchExecutor;
+    this.previewSampler = previewSampler;
+    this.costGuard = costGuard;
+    this.governor = governor;
+    this.rowSerializer = rowSerializer;
+    this.keysetPager = keysetPager;
+    this.lineDownsampler = lineDownsampler;
+    this.binningMinRows = binningMinRows;
+    this.bins = bins;
+
+    // the snapshot store keeps the metadata of a database nobody is logged in to any more
+    connectionManager.onLastSessionClosed(contexts::remove);
   }
 
-  public void setConnectionDetails(DatabaseDetails databaseDetails) {
-    connectionManager.setConnectionDetails(
+  // returns the id of the new session
+  public String setConnectionDetails(DatabaseDetails databaseDetails) throws SQLException {
+    DatabaseSession session = connectionManager.openSession(
         databaseDetails.getHost(),
         databaseDetails.getPort(),
         databaseDetails.getDatabaseName(),
         databaseDetails.getUsername(),
         databaseDetails.getPassword());
+
+    metadata(session);
+
+    return session.getId();
+  }
+
+  private AtomicReference<MetadataContext> metadata(DatabaseSession session) {
+    // reuse the last introspection of this database until the catalog says otherwise
+    String connectionKey = session.getConnectionKey();
+    AtomicReference<MetadataContext> context = contexts.computeIfAbsent(connectionKey,
+        key -> new AtomicReference<>(buildContext(snapshotStore.load(key).orElse(MetadataSnapshot.EMPTY))));
+
+    // the last session may have closed since this request resolved its own, in which case the listener has
+    // already run and nothing would remove the context just created; it still serves this request
+    if (!connectionManager.hasSessions(connectionKey)) {
+      contexts.remove(connectionKey, context);
+    }
+
+    return context;
   }
 
-  public void setDatabaseMetadata(List<TableMetadata> tables) {
-    this.databaseMetadata.clear();
-    this.databaseMetadata.addAll(tables);
+  private MetadataContext buildContext(MetadataSnapshot snapshot) {
+    return new MetadataContext(snapshot, buildClassificationIndex(snapshot));
   }
 
-  public List<TableMetadata> fetchTableMetadata() throws SQLException {
+  private ClassificationIndex buildClassificationIndex(MetadataSnapshot snapshot) {
+
+    Map<String, TableClassification> tables = new LinkedHashMap<>();
+    for (TableMetadata table : snapshot.getTables()) {
+      tables.put(table.getTableName(), classify(snapshot, table));
+    }
 
-    try (Connection connection = connectionManager.getConnection()) {
-      DatabaseMetaData metaData = connection.getMetaData();
-      ResultSet tablesRs = metaData.getTables(null, "public", "%", new String[] { "TABLE" });
-      List<TableMetadata> tables = new ArrayList<>();
+    return new ClassificationIndex(tables);
+  }
 
-      while (tablesRs.next()) {
-        String tableName = tablesRs.getString("TABLE_NAME");
+  // works out, from metadata alone, every vis type the table can be shown with, going through the patterns it
+  // can take part in
+  private TableClassification classify(MetadataSnapshot snapshot, TableMetadata table) {
 
-        ResultSet primaryKeysRs = metaData.getPrimaryKeys(null, "public", tableName);
-        List<String> primaryKeys = new ArrayList<>();
-        while (primaryKeysRs.next()) {
-          primaryKeys.add(primaryKeysRs.getString("COLUMN_NAME"));
-        }
+    List<Column> columns = table.getColumns();
+
+    List<Column> pks = columns.stream().filter(Column::isPrimaryKey).toList();
+    List<Column> fks = columns.stream().filter(Column::isForeignKey).toList();
+    List<Column> atts = columns.stream().filter(col -> !col.isPrimaryKey() && !col.isForeignKey()).toList();
+
+    List<Column> scalarAtts = atts.stream().filter(att -> isScalarType(att.getType())).toList();
+    List<Column> temporalAtts = atts.stream().filter(att -> TEMP_TYPES.contains(att.getType())).toList();
+
+    Set<String> visTypes = new LinkedHashSet<>();
 
-        ResultSet foreignKeysRs = metaData.getImportedKeys(null, "public", tableName);
-        List<ForeignKey> foreignKeys = new ArrayList<>();
-        while (foreignKeysRs.next()) {
-          String parentTable = foreignKeysRs.getString("PKTABLE_NAME");
-          String parentColumn = foreignKeysRs.getString("PKCOLUMN_NAME");
-          String childTable = foreignKeysRs.getString("FKTABLE_NAME");
-          String childColumn = foreignKeysRs.getString("FKCOLUMN_NAME");
-          foreignKeys.add(new ForeignKey(parentTable, parentColumn, childTable, childColumn));
+    // basic entity, keyed by its own (or inherited) primary key
+    List<Column> basicColumns = columns.stream().filter(col -> !(col.isForeignKey() && !col.isPrimaryKey())).toList();
+    int totalPkFks = (int) basicColumns.stream().filter(col -> col.isForeignKey() && col.isPrimaryKey()).count();
+    Column pk = pks.isEmpty() ? null : pks.get(0);
+
+    if (isBasicEntity(pks.size(), totalPkFks, List.of(table), basicColumns)) {
+      if (scalarAtts.size() >= 1) {
+        visTypes.add("bar");
+      }
+      if (temporalAtts.size() >= 1) {
+        visTypes.add("calendar");
+      }
+      if (scalarAtts.size() >= 2) {
+        visTypes.add("scatter");
+      }
+      if (scalarAtts.size() >= 3) {
+        visTypes.add("bubble");
+      }
+      if (pk != null && atts.size() >= 1 && (GEO_TABLE_NAMES.contains(pk.getName())
+          || (GEO_TABLE_NAMES.contains(pk.getTableName()) && GEO_COLUMN_NAMES.contains(pk.getName())))) {
+        visTypes.add("choropleth");
+      }
+      if (pk != null && LEX_TYPES.contains(pk.getType()) && scalarAtts.size() >= 1) {
+        visTypes.add("word-cloud");
+      }
+    }
+
+    // weak entity, needs a pure primary key alongside the inherited one
+    Column k2 = pks.stream().filter(col -> !col.isForeignKey()).findFirst().orElse(null);
+
+    if (k2 != null && isWeakEntity(List.of(table), new ArrayList<>(columns))) {
+      if (isScalarType(k2.getType()) && scalarAtts.size() >= 1) {
+        visTypes.add("line");
+      }
+      if (scalarAtts.size() >= 1) {
+        visTypes.add("stacked-bar");
+        visTypes.add("grouped-bar");
+        visTypes.add("spider");
+      }
+    }
+
+    // one-many, checked once per parent table the pure foreign keys point to
+    for (String parent : snapshot.getForeignKeyGraph().getParentTables(table.getTableName())) {
+      List<Column> parentColumns = new ArrayList<>();
+      for (Column col : columns) {
+        if (!col.isForeignKey() || col.isPrimaryKey()) {
+          parentColumns.add(col);
+          continue;
         }
 
-        ResultSet columnsRs = metaData.getColumns(null, "public", tableName, "%");
-        List<Column> columns = new ArrayList<>();
-        while (columnsRs.next()) {
-          String colName = columnsRs.getString("COLUMN_NAME");
-          String colType = columnsRs.getString("TYPE_NAME");
-          Column col = new Column(colName, colType, tableName);
+        // a column in several foreign keys counts towards the first of them
+        if (table.getForeignKeys(col.getName()).get(0).getParentTable().equals(parent)) {
+          parentColumns.add(col);
+        }
+      }
 
-          if (primaryKeys.contains(colName)) {
-            col.setPrimaryKey(true);
-          }
+      int numPks = (int) parentColumns.stream().filter(Column::isPrimaryKey).count();
+      int numPureFks = (int) parentColumns.stream().filter(col -> col.isForeignKey() && !col.isPrimaryKey()).count();
 
-          if (foreignKeys.stream().anyMatch(fk -> fk.getChildColumn().equals(colName))) {
-            col.setForeignKey(true);
-          }
+      if (isOneManyRelationship(numPks, numPureFks, List.of(table), parentColumns)) {
+        visTypes.add("hierarchy-tree");
+        if (scalarAtts.size() >= 1) {
+          visTypes.add("treemap");
+          visTypes.add("circle-packing");
+        }
+        break;
+      }
+    }
 
-          columns.add(col);
+    // many-many, reflexive when both sides reference the same table
+    if (isManyManyRelationship(pks.size(), List.of(table))) {
+      if (isReflexive(snapshot, List.of(table))) {
+        if (scalarAtts.size() >= 1) {
+          visTypes.add("chord");
+        }
+      } else {
+        visTypes.add("network");
+        if (scalarAtts.size() >= 1) {
+          visTypes.add("sankey");
         }
+      }
+    }
 
-        tables.add(new TableMetadata(tableName, columns, primaryKeys, foreignKeys));
+    return new TableClassification(table.getTableName(), visTypes, pks, fks, atts, scalarAtts, temporalAtts);
+  }
+
+  public List<TableMetadata> fetchTableMetadata(String sessionId) throws SQLException {
+
+    DatabaseSession session = connectionManager.getSession(sessionId);
+    AtomicReference<MetadataContext> reference = metadata(session);
+    MetadataContext current = reference.get();
+
+    try (Connection connection = connectionManager.getConnection(session)) {
+      String fingerprint = introspector.fingerprint(connection);
+
+      if (fingerprint != null && fingerprint.equals(current.getSnapshot().getFingerprint())) {
+        return current.getSnapshot().getTables();
       }
 
-      setDatabaseMetadata(tables);
-      return tables;
+      List<TableMetadata> tables = introspector.introspect(connection);
+      long version = current.getVersion() + 1;
+
+      MetadataSnapshot refreshed = new MetadataSnapshot(session.getConnectionKey(), version, fingerprint,
+          tables);
+
+      // requests already running keep the context they started with; if another refresh got in first, it stands
+      if (reference.compareAndSet(current, buildContext(refreshed))) {
+        // results cached against the old metadata may no longer match the classification
+        resultCache.invalidate(session.getConnectionKey());
+        snapshotStore.save(refreshed);
+      }
+
+      return reference.get().getSnapshot().getTables();
     } catch (SQLException e) {
       e.printStackTrace();
       throw e;
     }
   }
 
-  public DFResponse dfRecommendVisualisations(DFRequest request) throws SQLException {
+  // a preview samples the largest table and does not wait for the complete-weak check, so it never waits on a
+  // full scan; the same request without preview then fetches the exact result
+  public DFResponse dfRecommendVisualisations(String sessionId, DFRequest request, boolean preview)
+      throws SQLException {
 
-    List<String> tableNames = request.getTableNames();
+    DatabaseSession session = connectionManager.getSession(sessionId);
+    MetadataContext context = metadata(session).get();
+    GuardedQuery guarded = guardVisualisations(session, context, request, preview);
+    ChartQuery query = guarded.getQuery();
+
+    // the complete-weak check and the data fetch overlap, so the response waits for the slower of the two
+    CompletableFuture<Boolean> completeWeak = checkCompleteWeak(session, context, query);
+    GovernedResult<RawValue> result = fetchRows(session, context.getVersion(),
+        ResourceGovernor.DF_VISUALISE, query);
+
+    List<VisualisationOption> visualisations = confirmVisualisations(query, completeWeak(completeWeak, preview));
+    boolean sampling = preview || guarded.getSample() != null;
+
+    return new DFResponse(query.getPattern(), visualisations, result.getData(),
+        sampling ? guarded.getSample() != null : null, sampling ? samplingRate(guarded.getSample()) : null,
+        guarded.getRowLimit(), result.getTruncated());
+  }
+
+  public DFResponse dfRecommendColumnar(String sessionId, DFRequest request, boolean preview) throws SQLException {
+
+    DatabaseSession session = connectionManager.getSession(sessionId);
+    MetadataContext context = metadata(session).get();
+    GuardedQuery guarded = guardVisualisations(session, context, request, preview);
+    ChartQuery query = guarded.getQuery();
+
+    CompletableFuture<Boolean> completeWeak = checkCompleteWeak(session, context, query);
+    GovernedResult<ColumnarData> result = fetchColumnar(session, context.getVersion(),
+        ResourceGovernor.DF_VISUALISE, query);
+
+    List<VisualisationOption> visualisations = confirmVisualisations(query, completeWeak(completeWeak, preview));
+    boolean sampling = preview || guarded.getSample() != null;
+
+    return new DFResponse(query.getPattern(), visualisations, result.getData(),
+        sampling ? guarded.getSample() != null : null, sampling ? samplingRate(guarded.getSample()) : null,
+        guarded.getRowLimit(), result.getTruncated());
+  }
+
+  public StreamingResponseBody dfStreamVisualisations(String sessionId, DFRequest request, StreamFormat format,
+      boolean preview) throws SQLException {
+
+    DatabaseSession session = connectionManager.getSession(sessionId);
+    MetadataContext context = metadata(session).get();
+    GuardedQuery guarded = guardVisualisations(session, context, request, preview);
+    ChartQuery query = guarded.getQuery();
+
+    // the header goes out before any rows, so outside a preview the check has to finish first
+    boolean completeWeak = completeWeak(checkCompleteWeak(session, context, query), preview);
+
+    Map<String, Object> header = new LinkedHashMap<>();
+    header.put("pattern", query.getPattern());
+    header.put("visualisations", confirmVisualisations(query, completeWeak));
+    if (preview || guarded.getSample() != null) {
+      header.put("sampled", guarded.getSample() != null);
+      header.put("samplingRate", samplingRate(guarded.getSample()));
+    }
+    if (guarded.getRowLimit() != null) {
+      header.put("rowLimit", guarded.getRowLimit());
+    }
+
+    return out -> stream(session, query, header, format, out);
+  }
+
+  // plans straight away so a bad request fails here; only the data fetch runs in the background
+  public JobStatus submitVisualisationJob(String sessionId, DFRequest request, Long timeoutMillis)
+      throws SQLException {
+
+    DatabaseSession session = connectionManager.getSession(sessionId);
+    MetadataContext context = metadata(session).get();
+    ChartQuery query = planVisualisations(context, request, null, request.getLimit());
+    costGuard.check(session, context.getVersion(), QueryCostGuard.JOBS, query);
+
+    CompletableFuture<Boolean> completeWeak = checkCompleteWeak(session, context, query);
+
+    QueryJob job = jobManager.submit(session, query, timeoutMillis,
+        result -> new DFResponse(query.getPattern(), confirmVisualisations(query, completeWeak.join()),
+            result.getData(), null, null, null, result.getTruncated()));
+
+    return job.status();
+  }
+
+  public JobStatus submitExecutionJob(String sessionId, DFRequest request, Long timeoutMillis) {
+
+    DatabaseSession session = connectionManager.getSession(sessionId);
+    MetadataContext context = metadata(session).get();
+    ChartQuery query = planExecution(context, request);
+    costGuard.check(session, context.getVersion(), QueryCostGuard.JOBS, query);
+
+    QueryJob job = jobManager.submit(session, query, timeoutMillis, GovernedResult::getData);
+
+    return job.status();
+  }
+
+  // a job is only visible to the session that submitted it; to any other it does not exist
+  public QueryJob getJob(String sessionId, String jobId) {
+    DatabaseSession session = connectionManager.getSession(sessionId);
+    QueryJob job = jobManager.get(jobId);
+
+    if (job == null || !job.getSession().getId().equals(session.getId())) {
+      return null;
+    }
+
+    return job;
+  }
+
+  public void cancelJob(QueryJob job) {
+    jobManager.cancel(job);
+  }
+
+  public SseEmitter subscribeToJob(QueryJob job) {
+    return jobManager.subscribe(job);
+  }
+
+  private CompletableFuture<Boolean> checkCompleteWeak(DatabaseSession session, MetadataContext context,
+      ChartQuery query) {
+
+    CompleteWeakCheck check = query.getCompleteWeakCheck();
+    if (check == null) {
+      return CompletableFuture.completedFuture(false);
+    }
+
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return isCompleteWeak(session, context.getClassificationIndex(), check.getPkNames(), check.getFkNames(),
+            check.getTableNames());
+      } catch (SQLException e) {
+        throw new CompletionException(e);
+      }
+    }, pipelineExecutor);
+  }
+
+  // stacked-bar and spider were only offered provisionally by the plan
+  private List<VisualisationOption> confirmVisualisations(ChartQuery query, boolean completeWeak) {
+    if (completeWeak) {
+      return query.getVisualisations();
+    }
+
+    return query.getVisualisations().stream().filter(vis -> !COMPLETE_WEAK_VIS_TYPES.contains(vis.getId()))
+        .toList();
+  }
+
+  // a preview takes the verdict only if it is already there (usually cached); the check still runs, so the
+  // exact request that follows finds it cached
+  private boolean completeWeak(CompletableFuture<Boolean> future, boolean preview) throws SQLException {
+    if (preview) {
+      return future.exceptionally(e -> false).getNow(false);
+    }
+
+    return await(future);
+  }
+
+  // df-visualise runs whatever fits its budget, sampled or limited if need be
+  private GuardedQuery guardVisualisations(DatabaseSession session, MetadataContext context, DFRequest request,
+      boolean preview) throws SQLException {
+
+    TableSample sample = preview ? choosePreviewSample(session, request) : null;
+
+    return costGuard.guard(session, context.getVersion(), QueryCostGuard.DF_VISUALISE, request.getTableNames(),
+        sample, request.getLimit(), (s, limit) -> planVisualisations(context, request, s, limit));
+  }
+
+  private TableSample choosePreviewSample(DatabaseSession session, DFRequest request) throws SQLException {
+    try (Connection connection = connectionManager.getConnection(session)) {
+      return previewSampler.choose(connection, request.getTableNames());
+    } catch (SQLException e) {
+      e.printStackTrace();
+      throw e;
+    }
+  }
+
+  private double samplingRate(TableSample sample) {
+    return sample == null ? 1.0 : sample.getRate();
+  }
+
+  private <T> T await(CompletableFuture<T> future) throws SQLException {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof SQLException) {
+        throw (SQLException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  // classifies the chosen columns, picks the vis options and builds the query for the data
+  // with a sample, the sampled table is read through its TABLESAMPLE clause; limit stands in for the request's
+  private ChartQuery planVisualisations(MetadataContext context, DFRequest request, TableSample sample,
+      int limit) {
+
+    MetadataSnapshot snapshot = context.getSnapshot();
+
+    // the requested tables in metadata order, whatever order the request names them in
+    List<String> tableNames = snapshot.getTables().stream().map(TableMetadata::getTableName)
+        .filter(request.getTableNames()::contains).toList();
     List<String> fullColumnNames = request.getFullColumnNames();
-    List<String> columnNames = fullColumnNames.stream().map(col -> col.split("\\.")[1]).toList();
     Map<String, Map<String, String>> filters = request.getFilters();
-    int limit = request.getLimit();
 
     List<TableMetadata> tables = new ArrayList<>();
     List<Column> columns = new ArrayList<>();
     String pattern = null; // one of basic, weak, one-many, or many-many
     List<VisualisationOption> visOptions = new ArrayList<>(); // one of graph choices
+    CompleteWeakCheck completeWeakCheck = null;
 
-    for (TableMetadata table : databaseMetadata) {
-      if (tableNames.contains(table.getTableName())) {
+    JoinPlan plan = joinPlan(snapshot, tableNames);
+
+    for (String tableName : plan.getTableNames()) {
+      TableMetadata table = snapshot.getTable(tableName);
+      if (table != null) {
         tables.add(table);
       }
     }
 
-    // currently only supporting single-table queries
+    // the first table's keys classify the rows; the tables joined to it only add their selected attributes
     TableMetadata table = tables.get(0);
+    Set<String> selectedColumnNames = new HashSet<>(fullColumnNames);
     columns.addAll(table.getColumns().stream().filter(col -> col.isPrimaryKey()).toList());
-    columns.addAll(table.getColumns().stream()
-        .filter(col -> !columns.contains(col) && columnNames.contains(col.getName())).toList());
+    for (TableMetadata joined : tables) {
+      columns.addAll(joined.getColumns().stream()
+          .filter(col -> !col.isPrimaryKey() && (joined == table || !col.isForeignKey()))
+          .filter(col -> selectedColumnNames.contains(joined.getTableName() + "." + col.getName())).toList());
+    }
 
     int numPks = (int) columns.stream().filter(Column::isPrimaryKey).count();
     int numPureFks = (int) columns.stream().filter(col -> col.isForeignKey() && !col.isPrimaryKey()).count();
@@ -151,8 +535,7 @@ public class DatabaseService {
 
     List<Column> chosenPks = columns.stream().filter(Column::isPrimaryKey).toList();
     List<Column> chosenFks = columns.stream().filter(col -> col.isForeignKey()).toList();
-    List<Column> chosenAtts = columns.stream().filter(col -> !chosenPks.contains(col) && !chosenFks.contains(col))
-        .toList();
+    List<Column> chosenAtts = columns.stream().filter(col -> !col.isPrimaryKey() && !col.isForeignKey()).toList();
 
     List<String> chosenPkNames = chosenPks.stream().map(Column::getName).toList();
     List<String> chosenFkNames = chosenFks.stream().map(Column::getName).toList();
@@ -160,7 +543,7 @@ public class DatabaseService {
 
     List<String> chosenAttTypes = chosenAtts.stream().map(Column::getType).toList();
 
-    if (numPks == 0 && numPureFks == 0) {
+    if (!plan.isAnchored() || numPks == 0 && numPureFks == 0) {
       pattern = "none";
     } else if (isBasicEntity(numPks, totalFks, tables, columns)) {
       pattern = "basic";
@@ -199,18 +582,21 @@ public class DatabaseService {
         key2 = key2Opt.get();
       }
 
-      boolean completeWeak = isCompleteWeak(chosenPkNames, chosenFkNames, tableNames);
+      // stacked-bar and spider go in provisionally; the data check runs alongside the fetch
+      if (stackedBar(chosenAttTypes) || spider(chosenAttTypes)) {
+        completeWeakCheck = new CompleteWeakCheck(List.of(table.getTableName()), chosenPkNames, chosenFkNames);
+      }
 
       if (line(chosenPks, chosenAttTypes)) {
         visOptions.add(new VisualisationOption("line", "Line Chart", key1, key2, chosenAttNames, ""));
       }
-      if (completeWeak && stackedBar(chosenAttTypes)) {
+      if (stackedBar(chosenAttTypes)) {
         visOptions.add(new VisualisationOption("stacked-bar", "Stacked Bar Chart", key1, key2, chosenAttNames, ""));
       }
       if (groupedBar(chosenAttTypes)) {
         visOptions.add(new VisualisationOption("grouped-bar", "Grouped Bar Chart", key1, key2, chosenAttNames, ""));
       }
-      if (completeWeak && spider(chosenAttTypes)) {
+      if (spider(chosenAttTypes)) {
         visOptions.add(new VisualisationOption("spider", "Spider Chart", key1, key2, chosenAttNames, ""));
       }
     } else if (isOneManyRelationship(numPks, numPureFks, tables, columns)) {
@@ -229,7 +615,7 @@ public class DatabaseService {
         visOptions.add(new VisualisationOption("circle-packing", "Circle Packing", key1, key2, chosenAttNames, ""));
       }
     } else if (isManyManyRelationship(numPks, tables)) {
-      if (isReflexive(tables)) {
+      if (isReflexive(snapshot, tables)) {
         pattern = "reflexive";
 
         if (chord(chosenAttTypes)) {
@@ -253,55 +639,292 @@ public class DatabaseService {
       pattern = "none";
     }
 
-    // build and execute query to get data
-    List<Map<String, Object>> data = new ArrayList<>();
+    List<String> colNames = columns.stream().map(Column::getName).toList();
+
+    List<String> tableItems = sample == null ? plan.getTableNames() : sample.apply(plan.getTableNames());
+    List<String> fromTables = fromItems(snapshot, plan, tableItems, columns, filters);
+
+    List<Object> params = new ArrayList<>();
+    String queryStr = generateQuery(pattern, fromTables, colNames, numPks, chosenPkNames, chosenFkNames,
+        chosenAttNames, filters, limit, null, null, params);
+
+    return new ChartQuery(pattern, visOptions, queryStr, params).withCompleteWeakCheck(completeWeakCheck);
+  }
+
+  // keyset is null unless the query is paged, in which case limit already covers the page and its lookahead row;
+  // viewport is null unless a zoomed line (weak) or scatter (basic) chart is read
+  private String generateQuery(String pattern, List<String> tableNames, List<String> columnNames, int numPks,
+      List<String> chosenPkNames, List<String> chosenFkNames, List<String> chosenAttNames,
+      Map<String, Map<String, String>> filters, int limit, Keyset keyset, Viewport viewport, List<Object> params) {
+
+    if (pattern.equals("basic")) {
+      return generateBasicQuery(tableNames, columnNames, numPks, chosenPkNames, chosenFkNames, chosenAttNames,
+          filters, limit, keyset, viewport, params);
+    } else if (pattern.equals("weak")) {
+      return generateWeakQuery(tableNames, columnNames, chosenPkNames, chosenFkNames, chosenAttNames, filters,
+          limit, keyset, viewport, params);
+    } else if (pattern.equals("one-many")) {
+      return generateOneManyQuery(tableNames, columnNames, chosenPkNames, chosenFkNames, chosenAttNames, filters,
+          limit, keyset, params);
+    } else {
+      return generateRegularQuery(tableNames, columnNames, filters, limit, keyset, params);
+    }
+  }
+
+  // a request over several tables is read through the foreign keys between them, never as a cross product
+  private JoinPlan joinPlan(MetadataSnapshot snapshot, List<String> tableNames) {
+    return JoinPlan.plan(snapshot.getForeignKeyGraph(), tableNames);
+  }
+
+  // the FROM items the generators read; filters on bare names are taken to be on the first joined table that
+  // has the column
+  private List<String> fromItems(MetadataSnapshot snapshot, JoinPlan plan, List<String> tableItems,
+      List<Column> columns, Map<String, Map<String, String>> filters) {
+
+    checkFilterColumns(snapshot, plan, filters);
+
+    if (!plan.isJoined()) {
+      return tableItems;
+    }
+
+    Map<String, Set<String>> columnsByTable = new HashMap<>();
+    for (Column column : columns) {
+      columnsByTable.computeIfAbsent(column.getTableName(), t -> new LinkedHashSet<>()).add(column.getName());
+    }
 
-    try (Connection connection = connectionManager.getConnection()) {
+    if (filters != null) {
+      for (String filtered : filters.keySet()) {
+        int dot = filtered.indexOf('.');
+        String tableName = dot < 0 ? plan.getTableNames().stream()
+            .filter(t -> snapshot.getTable(t) != null && snapshot.getTable(t).hasColumn(filtered))
+            .findFirst().orElse(null) : filtered.substring(0, dot);
+        if (tableName != null) {
+          columnsByTable.computeIfAbsent(tableName, t -> new LinkedHashSet<>()).add(filtered.substring(dot + 1));
+        }
+      }
+    }
 
-      String queryStr = "";
+    return plan.from(tableItems, columnsByTable);
+  }
 
-      List<String> colNames = columns.stream().map(Column::getName).toList();
+  // filter keys are spliced into the SQL like comparators are, so each must name a column of a planned table,
+  // either as table.column or bare
+  private void checkFilterColumns(MetadataSnapshot snapshot, JoinPlan plan,
+      Map<String, Map<String, String>> filters) {
 
-      if (pattern.equals("basic")) {
-        queryStr = generateBasicQuery(tableNames, colNames, numPks, chosenPkNames, chosenFkNames,
-            chosenAttNames, filters, limit);
-      } else if (pattern.equals("weak")) {
-        queryStr = generateWeakQuery(tableNames, colNames, chosenPkNames, chosenFkNames, chosenAttNames, filters,
-            limit);
-      } else if (pattern.equals("one-many")) {
-        queryStr = generateOneManyQuery(tableNames, colNames, chosenPkNames, chosenFkNames, chosenAttNames, filters,
-            limit);
+    if (filters == null) {
+      return;
+    }
+
+    for (String filtered : filters.keySet()) {
+      int dot = filtered.indexOf('.');
+      boolean known;
+      if (dot < 0) {
+        known = plan.getTableNames().stream()
+            .anyMatch(t -> snapshot.getTable(t) != null && snapshot.getTable(t).hasColumn(filtered));
       } else {
-        queryStr = generateRegularQuery(tableNames, colNames, filters, limit);
+        String tableName = filtered.substring(0, dot);
+        TableMetadata table = snapshot.getTable(tableName);
+        known = plan.getTableNames().contains(tableName) && table != null
+            && table.hasColumn(filtered.substring(dot + 1));
       }
 
-      // System.out.println(queryStr);
+      if (!known) {
+        throw new InvalidRequestException("Unknown filter column: " + filtered);
+      }
+    }
+  }
+
+  // the columns a paged query is ordered and seeked by: the ones each pattern already orders or groups by,
+  // otherwise the primary keys
+  private List<String> keysetKeys(String pattern, int numPks, List<String> chosenPkNames,
+      List<String> chosenFkNames) {
+
+    if (pattern.equals("basic") && numPks == 0) {
+      return chosenFkNames;
+    } else if (pattern.equals("weak")) {
+      List<String> keys = new ArrayList<>(chosenPkNames.stream().filter(pk -> !chosenFkNames.contains(pk)).toList());
+      keys.addAll(chosenFkNames);
+      return keys;
+    } else {
+      return chosenPkNames;
+    }
+  }
 
-      PreparedStatement preparedStatement = connection.prepareStatement(queryStr);
-      ResultSet resultSet = preparedStatement.executeQuery();
+  // filter values become bind parameters so the same chart shape is one statement whatever the values are;
+  // comparators are spliced into the SQL, so only known ones are accepted
+  private void appendFilters(StringBuilder sb, Map<String, Map<String, String>> filters,
+      boolean caseInsensitiveEquality, List<Object> params) {
 
-      ResultSetMetaData metaData = resultSet.getMetaData();
-      int columnCount = metaData.getColumnCount();
+    if (filters == null) {
+      return;
+    }
 
-      while (resultSet.next()) {
-        Map<String, Object> row = new LinkedHashMap<>();
-        for (int i = 1; i <= columnCount; i++) {
-          row.put(metaData.getColumnName(i), resultSet.getObject(i));
+    for (Map.Entry<String, Map<String, String>> entry : filters.entrySet()) {
+      String columnName = entry.getKey();
+      String type = entry.getValue().get("type");
+      String comp = entry.getValue().get("comparator");
+      String val = entry.getValue().get("value");
+
+      if (type.equals("num")) {
+        if (!NUM_COMPARATORS.contains(comp)) {
+          throw new InvalidRequestException("Unsupported comparator for " + columnName + ": " + comp);
+        }
+
+        sb.append(" AND ").append(columnName).append(" ").append(comp).append(" ?");
+        params.add(numericParam(columnName, val));
+      } else if (type.equals("lex")) {
+        if (!LEX_COMPARATORS.contains(comp)) {
+          throw new InvalidRequestException("Unsupported comparator for " + columnName + ": " + comp);
         }
 
-        data.add(row);
+        if (caseInsensitiveEquality && comp.equals("=")) {
+          sb.append(" AND ").append(columnName).append(" ILIKE ?");
+        } else if (caseInsensitiveEquality && comp.equals("!=")) {
+          sb.append(" AND ").append(columnName).append(" NOT ILIKE ?");
+        } else {
+          sb.append(" AND ").append(columnName).append(" ").append(comp).append(" ?");
+        }
+        params.add(val);
+      }
+    }
+  }
+
+  // typed the way postgres would type the literal, so an integer column can still use its index
+  private Object numericParam(String columnName, String val) {
+
+    if (val == null) {
+      return null;
+    }
+
+    try {
+      BigDecimal number = new BigDecimal(val.trim());
+      try {
+        return number.longValueExact();
+      } catch (ArithmeticException e) {
+        return number;
       }
+    } catch (NumberFormatException e) {
+      throw new InvalidRequestException("Invalid numeric filter value for " + columnName + ": " + val);
+    }
+  }
+
+  // version is that of the metadata the query was planned against, so a result fetched while the metadata is
+  // replaced is not cached under the new version; the endpoint picks the governor's budget
+  @SuppressWarnings("unchecked")
+  private GovernedResult<RawValue> fetchRows(DatabaseSession session, long version, String endpoint,
+      ChartQuery query) throws SQLException {
+
+    Integer points = query.getLinePoints();
+    String kind = points == null ? "rows/" + endpoint : "line/" + points + "/" + endpoint;
+    ResultCacheKey key = new ResultCacheKey(session.getConnectionKey(), kind, query.getSql(), query.getParams());
+
+    Object cached = resultCache.get(key, version);
+    if (cached != null) {
+      return (GovernedResult<RawValue>) cached;
+    }
 
+    GovernedResult<RawValue> result;
+    ResourceGovernor.RowSinkFactory<RawValue> sink = points == null ? rowSerializer::open
+        : lineDownsampler.sink(points);
+
+    try (Connection connection = connectionManager.getConnection(session)) {
+      result = governor.fetch(connection, query, endpoint, session.getUser(), sink);
     } catch (SQLException e) {
       e.printStackTrace();
       throw e;
     }
 
-    return new DFResponse(pattern, visOptions, data);
+    if (result.getData() == null) {
+      result = new GovernedResult<>(new RawValue("[]"), 0, result.getTruncated());
+    }
+
+    cacheGoverned(key, version, result);
+
+    return result;
+  }
+
+  @SuppressWarnings("unchecked")
+  private GovernedResult<KeysetPage> fetchPage(DatabaseSession session, long version, String endpoint,
+      ChartQuery query) throws SQLException {
+
+    ResultCacheKey key = new ResultCacheKey(session.getConnectionKey(), "page/" + endpoint, query.getSql(),
+        query.getParams());
+
+    Object cached = resultCache.get(key, version);
+    if (cached != null) {
+      return (GovernedResult<KeysetPage>) cached;
+    }
+
+    GovernedResult<KeysetPage> result;
+
+    try (Connection connection = connectionManager.getConnection(session)) {
+      result = governor.fetch(connection, query, endpoint, session.getUser(), keysetPager.sink(query.getKeyset()));
+    } catch (SQLException e) {
+      e.printStackTrace();
+      throw e;
+    }
+
+    if (result.getData() == null) {
+      result = new GovernedResult<>(new KeysetPage(new RawValue("[]"), null, false), 0, result.getTruncated());
+    } else if (result.getTruncated() != null) {
+      result = new GovernedResult<>(result.getData().cutShort(), result.getBytes(), result.getTruncated());
+    }
+
+    cacheGoverned(key, version, result);
+
+    return result;
+  }
+
+  @SuppressWarnings("unchecked")
+  private GovernedResult<ColumnarData> fetchColumnar(DatabaseSession session, long version, String endpoint,
+      ChartQuery query) throws SQLException {
+
+    ResultCacheKey key = new ResultCacheKey(session.getConnectionKey(), "columnar/" + endpoint, query.getSql(),
+        query.getParams());
+
+    Object cached = resultCache.get(key, version);
+    if (cached != null) {
+      return (GovernedResult<ColumnarData>) cached;
+    }
+
+    GovernedResult<ColumnarData> result;
+
+    try (Connection connection = connectionManager.getConnection(session)) {
+      result = governor.fetch(connection, query, endpoint, session.getUser(), columnarEncoder::open);
+    } catch (SQLException e) {
+      e.printStackTrace();
+      throw e;
+    }
+
+    if (result.getData() == null) {
+      result = new GovernedResult<>(new ColumnarData(0, List.of()), 0, result.getTruncated());
+    }
+
+    cacheGoverned(key, version, result);
+
+    return result;
+  }
+
+  // a result cut short by the row or byte budget comes out the same next time, one cut short by time may not
+  private void cacheGoverned(ResultCacheKey key, long version, GovernedResult<?> result) {
+    if (!GovernedResult.TIMEOUT.equals(result.getTruncated())) {
+      resultCache.put(key, version, result, result.getBytes());
+    }
+  }
+
+  private void stream(DatabaseSession session, ChartQuery query, Object header, StreamFormat format,
+      OutputStream out) throws IOException {
+    try (Connection connection = connectionManager.getConnection(session)) {
+      resultStreamer.stream(connection, query, header, format, out);
+    } catch (SQLException e) {
+      e.printStackTrace();
+      throw new IOException(e);
+    }
   }
 
   private String generateRegularQuery(List<String> tableNames, List<String> columnNames,
-      Map<String, Map<String, String>> filters, int limit) {
+      Map<String, Map<String, String>> filters, int limit, Keyset keyset, List<Object> params) {
 
     // System.out.println("Generating regular query");
 
@@ -318,29 +941,27 @@ public class DatabaseService {
       }
     }
 
+    if (keyset != null) {
+      keyset.appendKeyColumns(sb);
+      sb.append(" ");
+    }
+
     sb.append("FROM ");
     sb.append(String.join(", ", tableNames));
 
     sb.append(" WHERE ");
     sb.append(String.join(" AND ", columnNames.stream().map(c -> c + " IS NOT NULL").toList()));
 
-    if (filters != null) {
-      for (Map.Entry<String, Map<String, String>> entry : filters.entrySet()) {
-        String columnName = entry.getKey();
-        String type = entry.getValue().get("type");
-        String comp = entry.getValue().get("comparator");
-        String val = entry.getValue().get("value");
-
-        if (type.equals("num")) {
-          sb.append(" AND ").append(columnName).append(" ").append(comp).append(" ").append(val);
-        } else if (type.equals("lex")) {
-          sb.append(" AND ").append(columnName).append(" ").append(comp).append(" '").append(val).append("'");
-        }
-      }
+    appendFilters(sb, filters, false, params);
+
+    if (keyset != null) {
+      keyset.appendSeek(sb, params);
+      keyset.appendOrderBy(sb);
     }
 
     if (limit != -1) {
-      sb.append(" LIMIT ").append(limit);
+      sb.append(" LIMIT ?");
+      params.add(new ChartQuery.LimitParam(limit));
     }
 
     sb.append(";");
@@ -350,7 +971,8 @@ public class DatabaseService {
 
   private String generateBasicQuery(List<String> tableNames, List<String> columnNames, int numPks,
       List<String> chosenPkNames, List<String> chosenFkNames, List<String> chosenAttNames,
-      Map<String, Map<String, String>> filters, int limit) {
+      Map<String, Map<String, String>> filters, int limit, Keyset keyset, Viewport viewport,
+      List<Object> params) {
 
     // System.out.println("Generating basic query");
 
@@ -374,40 +996,36 @@ public class DatabaseService {
       }
     }
 
+    if (keyset != null) {
+      keyset.appendKeyColumns(sb);
+    }
+
     sb.append(" FROM ");
     sb.append(String.join(", ", tableNames));
 
     sb.append(" WHERE ");
     sb.append(String.join(" AND ", columnNames.stream().map(c -> c + " IS NOT NULL").toList()));
 
-    if (filters != null) {
-      for (Map.Entry<String, Map<String, String>> entry : filters.entrySet()) {
-        String columnName = entry.getKey();
-        String type = entry.getValue().get("type");
-        String comp = entry.getValue().get("comparator");
-        String val = entry.getValue().get("value");
-
-        if (type.equals("num")) {
-          sb.append(" AND ").append(columnName).append(" ").append(comp).append(" ").append(val);
-        } else if (type.equals("lex")) {
-          if (comp.equals("=")) {
-            sb.append(" AND ").append(columnName).append(" ILIKE '").append(val).append("'");
-          } else if (comp.equals("!=")) {
-            sb.append(" AND ").append(columnName).append(" NOT ILIKE '").append(val).append("'");
-          } else {
-            sb.append(" AND ").append(columnName).append(" ").append(comp).append(" '").append(val).append("'");
-          }
-        }
-      }
+    appendFilters(sb, filters, true, params);
+
+    if (viewport != null) {
+      viewport.appendRange(sb, params);
+    }
+
+    if (keyset != null) {
+      keyset.appendSeek(sb, params);
     }
 
     if (numPks == 0) {
       sb.append(" GROUP BY ").append(String.join(", ", chosenFkNames));
       sb.append(" ORDER BY ").append(String.join(", ", chosenFkNames));
+    } else if (keyset != null) {
+      keyset.appendOrderBy(sb);
     }
 
     if (limit != -1) {
-      sb.append(" LIMIT ").append(limit);
+      sb.append(" LIMIT ?");
+      params.add(new ChartQuery.LimitParam(limit));
     }
 
     sb.append(";");
@@ -416,7 +1034,8 @@ public class DatabaseService {
   }
 
   private String generateWeakQuery(List<String> tableNames, List<String> columnNames, List<String> chosenPkNames,
-      List<String> chosenFkNames, List<String> chosenAttNames, Map<String, Map<String, String>> filters, int limit) {
+      List<String> chosenFkNames, List<String> chosenAttNames, Map<String, Map<String, String>> filters, int limit,
+      Keyset keyset, Viewport viewport, List<Object> params) {
 
     // System.out.println("Generating weak query");
 
@@ -437,31 +1056,24 @@ public class DatabaseService {
           String.join(", ", chosenAttNames.stream().map(att -> "SUM(" + att + ")" + " AS " + att).toList()));
     }
 
+    if (keyset != null) {
+      keyset.appendKeyColumns(sb);
+    }
+
     sb.append(" FROM ");
     sb.append(String.join(", ", tableNames));
 
     sb.append(" WHERE ");
     sb.append(String.join(" AND ", columnNames.stream().map(c -> c + " IS NOT NULL").toList()));
 
-    if (filters != null) {
-      for (Map.Entry<String, Map<String, String>> entry : filters.entrySet()) {
-        String columnName = entry.getKey();
-        String type = entry.getValue().get("type");
-        String comp = entry.getValue().get("comparator");
-        String val = entry.getValue().get("value");
-
-        if (type.equals("num")) {
-          sb.append(" AND ").append(columnName).append(" ").append(comp).append(" ").append(val);
-        } else if (type.equals("lex")) {
-          if (comp.equals("=")) {
-            sb.append(" AND ").append(columnName).append(" ILIKE '").append(val).append("'");
-          } else if (comp.equals("!=")) {
-            sb.append(" AND ").append(columnName).append(" NOT ILIKE '").append(val).append("'");
-          } else {
-            sb.append(" AND ").append(columnName).append(" ").append(comp).append(" '").append(val).append("'");
-          }
-        }
-      }
+    appendFilters(sb, filters, true, params);
+
+    if (viewport != null) {
+      viewport.appendRange(sb, params);
+    }
+
+    if (keyset != null) {
+      keyset.appendSeek(sb, params);
     }
 
     sb.append(" GROUP BY ")
@@ -479,37 +1091,161 @@ public class DatabaseService {
     }
 
     if (limit != -1) {
-      sb.append(" LIMIT ").append(limit);
+      sb.append(" LIMIT ?");
+      params.add(new ChartQuery.LimitParam(limit));
+    }
+
+    sb.append(";");
+
+    return sb.toString();
+  }
+
+  // the distinct series of a weak line, read from the tables rather than the grouped query so the planner
+  // estimates their number from the column statistics
+  private ChartQuery generateLineSeriesQuery(List<String> tableNames, List<String> columnNames,
+      List<String> chosenFkNames, Map<String, Map<String, String>> filters, Viewport viewport) {
+
+    List<Object> params = new ArrayList<>();
+    StringBuilder sb = new StringBuilder();
+
+    sb.append("SELECT DISTINCT ").append(String.join(" || ' | ' || ", chosenFkNames));
+
+    sb.append(" FROM ");
+    sb.append(String.join(", ", tableNames));
+
+    sb.append(" WHERE ");
+    sb.append(String.join(" AND ", columnNames.stream().map(c -> c + " IS NOT NULL").toList()));
+
+    appendFilters(sb, filters, true, params);
+
+    if (viewport != null) {
+      viewport.appendRange(sb, params);
+    }
+
+    sb.append(";");
+
+    return new ChartQuery("weak", List.of(), sb.toString(), params);
+  }
+
+  private String generateOneManyQuery(List<String> tableNames, List<String> columnNames, List<String> chosenPkNames,
+      List<String> chosenFkNames, List<String> chosenAttNames, Map<String, Map<String, String>> filters, int limit,
+      Keyset keyset, List<Object> params) {
+
+    // System.out.println("Generating one-many query");
+
+    StringBuilder sb = new StringBuilder();
+
+    List<String> chosenPureFks = chosenFkNames.stream().filter(fk -> !chosenPkNames.contains(fk)).toList();
+
+    sb.append("SELECT ");
+
+    if (chosenPureFks.size() > 0) {
+      sb.append(String.join(" || ' | ' || ", chosenPureFks)).append(" AS ")
+          .append("\"").append(String.join(" | ", chosenPureFks)).append("\"");
+    }
+
+    if (chosenPkNames.size() > 0) {
+      sb.append(", ").append(String.join(", ", chosenPkNames));
+    }
+
+    if (chosenAttNames.size() > 0) {
+      sb.append(", ").append(
+          String.join(", ", chosenAttNames.stream().map(att -> att + " AS " + att).toList()));
+    }
+
+    if (keyset != null) {
+      keyset.appendKeyColumns(sb);
+    }
+
+    sb.append(" FROM ");
+    sb.append(String.join(", ", tableNames));
+
+    sb.append(" WHERE ");
+    sb.append(String.join(" AND ", columnNames.stream().map(c -> c + " IS NOT NULL").toList()));
+
+    appendFilters(sb, filters, true, params);
+
+    if (keyset != null) {
+      keyset.appendSeek(sb, params);
+      keyset.appendOrderBy(sb);
+    }
+
+    if (limit != -1) {
+      sb.append(" LIMIT ?");
+      params.add(new ChartQuery.LimitParam(limit));
+    }
+
+    sb.append(";");
+
+    return sb.toString();
+  }
+
+  // keys past the top ones become one "Other" row per group, so the key comes back as text whatever its type;
+  // ties in the attribute are broken by key so the same rows are kept on every run
+  private String generateTopNQuery(String sql, List<String> outputs, String group, String key, String att,
+      int top) {
+
+    String inner = sql.endsWith(";") ? sql.substring(0, sql.length() - 1) : sql;
+
+    StringBuilder sb = new StringBuilder();
+    List<String> grouping = new ArrayList<>();
+
+    sb.append("SELECT ");
+
+    for (int i = 0; i < outputs.size(); i++) {
+      String column = outputs.get(i);
+      if (i > 0) {
+        sb.append(", ");
+      }
+
+      if (column.equals(att)) {
+        sb.append("SUM(ranked.").append(att).append(") AS ").append(att);
+        continue;
+      }
+
+      if (column.equals(key)) {
+        sb.append("CASE WHEN ranked.").append(TOP_N_RANK).append(" <= ").append(top).append(" THEN CAST(ranked.")
+            .append(key).append(" AS text) ELSE '").append(TOP_N_OTHER).append("' END AS ").append(key);
+      } else {
+        sb.append("ranked.").append(column);
+      }
+      grouping.add(String.valueOf(i + 1));
     }
 
-    sb.append(";");
+    sb.append(" FROM (SELECT topn.*, ROW_NUMBER() OVER (");
+    if (group != null) {
+      sb.append("PARTITION BY topn.").append(group).append(" ");
+    }
+    sb.append("ORDER BY topn.").append(att).append(" DESC, topn.").append(key).append(") AS ").append(TOP_N_RANK)
+        .append(" FROM (").append(inner).append(") topn) ranked");
+
+    sb.append(" GROUP BY ").append(String.join(", ", grouping));
+
+    sb.append(" ORDER BY ");
+    if (group != null) {
+      sb.append(outputs.indexOf(group) + 1).append(", ");
+    }
+    sb.append("MIN(ranked.").append(TOP_N_RANK).append(");");
 
     return sb.toString();
   }
 
-  private String generateOneManyQuery(List<String> tableNames, List<String> columnNames, List<String> chosenPkNames,
-      List<String> chosenFkNames, List<String> chosenAttNames, Map<String, Map<String, String>> filters, int limit) {
+  // one row per occupied cell of a bins x bins grid over the data's x and y range: the cell centre under the
+  // attributes' own names, how many points fall in it, and for bubbles their average size. In a viewport the
+  // grid spans the viewport's bounds where it has them, so cells stay put while the user pans
+  private String generateBinnedQuery(List<String> tableNames, List<String> columnNames, List<String> attNames,
+      Map<String, Map<String, String>> filters, Viewport viewport, int bins, List<Object> params) {
 
-    // System.out.println("Generating one-many query");
+    String x = attNames.get(0);
+    String y = attNames.get(1);
 
     StringBuilder sb = new StringBuilder();
 
-    List<String> chosenPureFks = chosenFkNames.stream().filter(fk -> !chosenPkNames.contains(fk)).toList();
-
-    sb.append("SELECT ");
-
-    if (chosenPureFks.size() > 0) {
-      sb.append(String.join(" || ' | ' || ", chosenPureFks)).append(" AS ")
-          .append("\"").append(String.join(" | ", chosenPureFks)).append("\"");
-    }
-
-    if (chosenPkNames.size() > 0) {
-      sb.append(", ").append(String.join(", ", chosenPkNames));
-    }
+    sb.append("WITH points AS (SELECT CAST(").append(x).append(" AS float8) AS x, CAST(").append(y)
+        .append(" AS float8) AS y");
 
-    if (chosenAttNames.size() > 0) {
-      sb.append(", ").append(
-          String.join(", ", chosenAttNames.stream().map(att -> att + " AS " + att).toList()));
+    if (attNames.size() > 2) {
+      sb.append(", CAST(").append(attNames.get(2)).append(" AS float8) AS size");
     }
 
     sb.append(" FROM ");
@@ -518,36 +1254,54 @@ public class DatabaseService {
     sb.append(" WHERE ");
     sb.append(String.join(" AND ", columnNames.stream().map(c -> c + " IS NOT NULL").toList()));
 
-    if (filters != null) {
-      for (Map.Entry<String, Map<String, String>> entry : filters.entrySet()) {
-        String columnName = entry.getKey();
-        String type = entry.getValue().get("type");
-        String comp = entry.getValue().get("comparator");
-        String val = entry.getValue().get("value");
-
-        if (type.equals("num")) {
-          sb.append(" AND ").append(columnName).append(" ").append(comp).append(" ").append(val);
-        } else if (type.equals("lex")) {
-          if (comp.equals("=")) {
-            sb.append(" AND ").append(columnName).append(" ILIKE '").append(val).append("'");
-          } else if (comp.equals("!=")) {
-            sb.append(" AND ").append(columnName).append(" NOT ILIKE '").append(val).append("'");
-          } else {
-            sb.append(" AND ").append(columnName).append(" ").append(comp).append(" '").append(val).append("'");
-          }
-        }
-      }
+    appendFilters(sb, filters, true, params);
+
+    if (viewport == null) {
+      sb.append("), bounds AS (SELECT MIN(x) AS min_x, MAX(x) AS max_x, MIN(y) AS min_y, MAX(y) AS max_y")
+          .append(" FROM points)");
+    } else {
+      viewport.appendRange(sb, params);
+
+      sb.append("), bounds AS (SELECT ").append(bound(viewport.getXMin(), "MIN(x)", params)).append(" AS min_x, ")
+          .append(bound(viewport.getXMax(), "MAX(x)", params)).append(" AS max_x, ")
+          .append(bound(viewport.getYMin(), "MIN(y)", params)).append(" AS min_y, ")
+          .append(bound(viewport.getYMax(), "MAX(y)", params)).append(" AS max_y FROM points)");
     }
 
-    if (limit != -1) {
-      sb.append(" LIMIT ").append(limit);
+    sb.append(" SELECT min_x + (x_bin - 0.5) * (max_x - min_x) / ").append(bins).append(" AS ").append(x)
+        .append(", min_y + (y_bin - 0.5) * (max_y - min_y) / ").append(bins).append(" AS ").append(y)
+        .append(", COUNT(*) AS count");
+
+    if (attNames.size() > 2) {
+      sb.append(", AVG(size) AS ").append(attNames.get(2));
     }
 
+    // width_bucket puts the maximum in an overflow bucket of its own and fails on an empty range
+    sb.append(" FROM (SELECT points.*, bounds.*, ").append(bucket("x", bins)).append(" AS x_bin, ")
+        .append(bucket("y", bins)).append(" AS y_bin FROM points, bounds) cells");
+
+    sb.append(" GROUP BY x_bin, y_bin, min_x, max_x, min_y, max_y ORDER BY x_bin, y_bin");
+
     sb.append(";");
 
     return sb.toString();
   }
 
+  // still an aggregate when the viewport gives the bound, so bounds stays a single row
+  private String bound(String value, String aggregate, List<Object> params) {
+    if (value == null) {
+      return aggregate;
+    }
+
+    params.add(value);
+    return "COALESCE(CAST(? AS float8), " + aggregate + ")";
+  }
+
+  private String bucket(String axis, int bins) {
+    return "CASE WHEN max_" + axis + " > min_" + axis + " THEN LEAST(width_bucket(" + axis + ", min_" + axis
+        + ", max_" + axis + ", " + bins + "), " + bins + ") ELSE 1 END";
+  }
+
   private boolean isScalarType(String type) {
     return NUM_TYPES.contains(type) || TEMP_TYPES.contains(type);
   }
@@ -634,11 +1388,12 @@ public class DatabaseService {
 
     TableMetadata table = tables.get(0);
 
-    List<String> pkFks = table.getColumns().stream().filter(col -> col.isPrimaryKey() && col.isForeignKey())
-        .map(Column::getName).toList();
+    BitSet pkColumns = table.getPrimaryKeyColumns();
+    BitSet pkFkColumns = table.getPrimaryKeyColumns();
+    pkFkColumns.and(table.getForeignKeyColumns());
 
     // primary key inherited
-    if (pkFks.size() == 1 && pkFks.containsAll(table.getPrimaryKeys()) || table.getPrimaryKeys().size() == 0) {
+    if (pkFkColumns.cardinality() == 1 && pkFkColumns.equals(pkColumns) || table.getPrimaryKeys().size() == 0) {
       return true;
     }
 
@@ -661,8 +1416,9 @@ public class DatabaseService {
       return false;
     }
 
+    Set<Column> chosen = new HashSet<>(columns);
     for (Column pkFk : bothPkAndFk) {
-      if (!columns.contains(pkFk)) {
+      if (chosen.add(pkFk)) {
         columns.add(pkFk);
       }
     }
@@ -672,13 +1428,9 @@ public class DatabaseService {
       return false;
     }
 
-    List<String> bothPkAndFkNames = bothPkAndFk.stream().map(Column::getName).toList();
-
-    List<ForeignKey> chosenPkFks = table.getForeignKeys().stream()
-        .filter(fk -> bothPkAndFkNames.contains(fk.getChildColumn())).toList();
-
     // check they all have same parent (within single foreign key)
-    if (chosenPkFks.stream().map(ForeignKey::getParentTable).distinct().count() == 1) {
+    if (bothPkAndFk.stream().flatMap(pkFk -> table.getForeignKeys(pkFk.getName()).stream())
+        .map(ForeignKey::getParentTable).distinct().count() == 1) {
       return true;
     }
 
@@ -700,6 +1452,7 @@ public class DatabaseService {
     List<ForeignKey> chosenFkObjs = table.getForeignKeys().stream()
         .filter(fk -> chosenPureFks.contains(fk.getChildColumn())).toList();
 
+    // a column in two foreign keys gives more keys than columns
     if (chosenFkObjs.size() != chosenPureFks.size()) {
       return false;
     }
@@ -724,100 +1477,103 @@ public class DatabaseService {
       return false;
     }
 
-    if (!(table.getForeignKeys().stream().map(ForeignKey::getChildColumn).toList()
-        .containsAll(table.getPrimaryKeys())
-        && table.getPrimaryKeys()
-            .containsAll(table.getForeignKeys().stream().map(ForeignKey::getChildColumn).toList()))) {
+    // every primary key column is a foreign key column and vice versa
+    if (!table.getPrimaryKeyColumns().equals(table.getForeignKeyColumns())) {
       return false;
     }
 
     return true;
   }
 
-  private boolean isReflexive(List<TableMetadata> tables) {
+  private boolean isReflexive(MetadataSnapshot snapshot, List<TableMetadata> tables) {
 
     // assume only single table used - NEED TO UPDATE FOR MULTIPLE TABLES
     TableMetadata table = tables.get(0);
 
-    return table.getForeignKeys().stream().map(ForeignKey::getParentTable).distinct().count() == 1;
+    return snapshot.getForeignKeyGraph().getParentTables(table.getTableName()).size() == 1;
   }
 
-  private boolean isCompleteWeak(List<String> chosenPkNames, List<String> chosenFkNames, List<String> tableNames)
-      throws SQLException {
-
-    StringBuilder sb = new StringBuilder();
+  // complete when every owner has the same number of distinct partial keys (e.g. every sensor has a reading at
+  // every timestamp); counted in the database and remembered for the current metadata version
+  private boolean isCompleteWeak(DatabaseSession session, ClassificationIndex index, List<String> chosenPkNames,
+      List<String> chosenFkNames, List<String> tableNames) throws SQLException {
 
-    sb.append("SELECT ");
-    sb.append(String.join(" || ' | ' || ", chosenFkNames)).append(" AS ").append("\"")
-        .append(String.join(" | ", chosenFkNames)).append("\"");
     List<String> chosenPurePks = chosenPkNames.stream().filter(pk -> !chosenFkNames.contains(pk)).toList();
-    if (chosenPurePks.size() > 0) {
-      sb.append(", ")
-          .append(String.join(", ", chosenPurePks));
-    }
-
-    sb.append(" FROM ");
-    sb.append(String.join(", ", tableNames));
 
-    sb.append(";");
-
-    String queryStr = sb.toString();
-
-    Map<String, Set<String>> fks = new HashMap<>();
+    if (chosenFkNames.isEmpty() || chosenPurePks.isEmpty()) {
+      return false;
+    }
 
-    try (Connection connection = connectionManager.getConnection()) {
+    String key = String.join(", ", tableNames) + "/" + String.join(", ", chosenFkNames) + "/" + chosenPurePks.get(0);
 
-      // System.out.println(queryStr);
+    Boolean cached = index.getCompleteWeak(key);
+    if (cached != null) {
+      return cached;
+    }
 
-      PreparedStatement preparedStatement = connection.prepareStatement(queryStr);
-      ResultSet resultSet = preparedStatement.executeQuery();
+    StringBuilder sb = new StringBuilder();
 
-      if (!resultSet.next()) {
-        return false;
-      }
+    sb.append("SELECT MIN(n) = MAX(n) FROM (SELECT COUNT(DISTINCT ").append(chosenPurePks.get(0)).append(") AS n");
+    sb.append(" FROM ").append(String.join(", ", tableNames));
+    sb.append(" GROUP BY ").append(String.join(", ", chosenFkNames));
+    sb.append(") counts;");
 
-      while (resultSet.next()) {
-        String fk = resultSet.getString(1);
+    boolean completeWeak;
 
-        if (!fks.containsKey(fk)) {
-          fks.put(fk, new HashSet<>());
-        }
+    try (Connection connection = connectionManager.getConnection(session);
+        PreparedStatement preparedStatement = connection.prepareStatement(sb.toString());
+        ResultSet resultSet = preparedStatement.executeQuery()) {
 
-        fks.get(fk).add(resultSet.getString(2));
-      }
+      // no rows at all gives NULL, which reads as false
+      completeWeak = resultSet.next() && resultSet.getBoolean(1);
 
     } catch (SQLException e) {
       e.printStackTrace();
       throw e;
     }
 
-    List<String> allFks = fks.keySet().stream().toList();
+    index.putCompleteWeak(key, completeWeak);
 
-    int count = fks.get(allFks.get(0)).size();
+    return completeWeak;
+  }
 
-    for (String fk : allFks) {
-      if (fks.get(fk).size() != count) {
-        return false;
-      }
-    }
+  // cache and governor counters are process-wide, but only a logged-in session may read them
+  public CacheStats getCacheStats(String sessionId) {
+    connectionManager.getSession(sessionId);
+    return resultCache.getStats();
+  }
 
-    return true;
+  public List<GovernorStats> getGovernorStats(String sessionId) {
+    connectionManager.getSession(sessionId);
+    return governor.getStats();
   }
 
-  public VFResponse vfGenerateOptions(VFRequest request) {
+  // only the pools of the session's own database and user
+  public List<PoolStats> getPoolStats(String sessionId) {
+    return connectionManager.getPoolStats(connectionManager.getSession(sessionId));
+  }
 
-    List<VisualisationOption> options = new ArrayList<>();
+  public VFResponse vfGenerateOptions(String sessionId, VFRequest request) {
+    MetadataContext context = metadata(connectionManager.getSession(sessionId)).get();
 
-    String vis = request.getVisId();
-    String tableName = request.getTable();
+    return context.getClassificationIndex().options(request.getTable(), request.getVisId(),
+        () -> generateOptions(context, request.getVisId(), request.getTable()));
+  }
 
-    TableMetadata table = databaseMetadata.stream().filter(t -> t.getTableName().equals(tableName)).findFirst()
-        .get();
-    List<Column> columns = table.getColumns();
+  private VFResponse generateOptions(MetadataContext context, String vis, String tableName) {
 
-    List<Column> pks = columns.stream().filter(Column::isPrimaryKey).toList();
-    List<Column> fks = columns.stream().filter(col -> col.isForeignKey()).toList();
-    List<Column> atts = columns.stream().filter(col -> !col.isPrimaryKey() && !col.isForeignKey()).toList();
+    MetadataSnapshot snapshot = context.getSnapshot();
+    ClassificationIndex index = context.getClassificationIndex();
+    List<VisualisationOption> options = new ArrayList<>();
+
+    TableMetadata table = snapshot.getTable(tableName);
+    TableClassification classification = index.get(tableName);
+
+    List<Column> pks = classification.getPrimaryKeys();
+    List<Column> fks = classification.getForeignKeys();
+    List<Column> atts = classification.getAttributes();
+    List<Column> scalarAtts = classification.getScalarAttributes();
+    List<Column> temporalAtts = classification.getTemporalAttributes();
 
     String pattern = "none";
 
@@ -834,45 +1590,40 @@ public class DatabaseService {
 
       switch (vis) {
         case "bar":
-          for (Column att : atts) {
-            if (isScalarType(att.getType())) {
-              String title = keyName + " vs " + att.getName();
-              options.add(new VisualisationOption("bar", "Bar Chart", keyName, "", List.of(att.getName()),
-                  title));
-            }
+          for (Column att : scalarAtts) {
+            String title = keyName + " vs " + att.getName();
+            options.add(new VisualisationOption("bar", "Bar Chart", keyName, "", List.of(att.getName()),
+                title));
           }
           break;
         case "calendar":
-          for (Column att : atts) {
-            if (TEMP_TYPES.contains(att.getType())) {
-              String title = keyName + " by " + att.getName();
-              options.add(new VisualisationOption("calendar", "Calendar", keyName, "",
-                  List.of(att.getName()), title));
-            }
+          for (Column att : temporalAtts) {
+            String title = keyName + " by " + att.getName();
+            options.add(new VisualisationOption("calendar", "Calendar", keyName, "",
+                List.of(att.getName()), title));
           }
           break;
         case "scatter":
-          for (int i = 0; i < atts.size(); i++) {
-            for (int j = 0; j < atts.size(); j++) {
-              if (isScalarType(atts.get(i).getType()) && isScalarType(atts.get(j).getType()) && i != j) {
-                String title = atts.get(i).getName() + " vs " + atts.get(j).getName();
+          for (int i = 0; i < scalarAtts.size(); i++) {
+            for (int j = 0; j < scalarAtts.size(); j++) {
+              if (i != j) {
+                String title = scalarAtts.get(i).getName() + " vs " + scalarAtts.get(j).getName();
                 options.add(new VisualisationOption("scatter", "Scatter Chart", keyName, "",
-                    List.of(atts.get(i).getName(), atts.get(j).getName()), title));
+                    List.of(scalarAtts.get(i).getName(), scalarAtts.get(j).getName()), title));
               }
             }
           }
           break;
         case "bubble":
-          for (int i = 0; i < atts.size(); i++) {
-            for (int j = 0; j < atts.size(); j++) {
-              for (int k = 0; k < atts.size(); k++) {
-                if (isScalarType(atts.get(i).getType()) && isScalarType(atts.get(j).getType())
-                    && isScalarType(atts.get(k).getType()) && i != j && j != k && i != k) {
-                  String title = atts.get(i).getName() + " vs " + atts.get(j).getName() + ", sized by "
-                      + atts.get(k).getName();
+          for (int i = 0; i < scalarAtts.size(); i++) {
+            for (int j = 0; j < scalarAtts.size(); j++) {
+              for (int k = 0; k < scalarAtts.size(); k++) {
+                if (i != j && j != k && i != k) {
+                  String title = scalarAtts.get(i).getName() + " vs " + scalarAtts.get(j).getName() + ", sized by "
+                      + scalarAtts.get(k).getName();
                   options.add(new VisualisationOption("bubble", "Bubble Chart", keyName, "",
-                      List.of(atts.get(i).getName(), atts.get(j).getName(),
-                          atts.get(k).getName()),
+                      List.of(scalarAtts.get(i).getName(), scalarAtts.get(j).getName(),
+                          scalarAtts.get(k).getName()),
                       title));
                 }
 
@@ -888,12 +1639,10 @@ public class DatabaseService {
           }
           break;
         case "word-cloud":
-          for (Column att : atts) {
-            if (isScalarType(att.getType())) {
-              String title = pks.get(0).getName() + ", sized by " + att.getName();
-              options.add(new VisualisationOption("word-cloud", "Word Cloud", keyName, "",
-                  List.of(att.getName()), title));
-            }
+          for (Column att : scalarAtts) {
+            String title = pks.get(0).getName() + ", sized by " + att.getName();
+            options.add(new VisualisationOption("word-cloud", "Word Cloud", keyName, "",
+                List.of(att.getName()), title));
           }
           break;
       }
@@ -909,46 +1658,38 @@ public class DatabaseService {
         case "line":
           for (Column pk : purePks) {
             if (isScalarType(pk.getType())) {
-              for (Column att : atts) {
-                if (isScalarType(att.getType())) {
-                  String title = pk.getName() + " vs " + att.getName() + ", for each " + concattedFkPkName;
-                  options.add(new VisualisationOption("line", "Line Chart", concattedFkPkName, pk.getName(),
-                      List.of(att.getName()), title));
-                }
+              for (Column att : scalarAtts) {
+                String title = pk.getName() + " vs " + att.getName() + ", for each " + concattedFkPkName;
+                options.add(new VisualisationOption("line", "Line Chart", concattedFkPkName, pk.getName(),
+                    List.of(att.getName()), title));
               }
             }
           }
           break;
         case "stacked-bar":
-          for (Column att : atts) {
-            if (isScalarType(att.getType())) {
-              String title = purePks.get(0).getName() + " vs " + att.getName() + ", for each " + concattedFkPkName;
-              options.add(
-                  new VisualisationOption("stacked-bar", "Stacked Bar Chart", concattedFkPkName,
-                      purePks.get(0).getName(),
-                      List.of(att.getName()), title));
-            }
+          for (Column att : scalarAtts) {
+            String title = purePks.get(0).getName() + " vs " + att.getName() + ", for each " + concattedFkPkName;
+            options.add(
+                new VisualisationOption("stacked-bar", "Stacked Bar Chart", concattedFkPkName,
+                    purePks.get(0).getName(),
+                    List.of(att.getName()), title));
           }
           break;
         case "grouped-bar":
-          for (Column att : atts) {
-            if (isScalarType(att.getType())) {
-              String title = purePks.get(0).getName() + " vs " + att.getName()
-                  + ", for each " + concattedFkPkName;
-              options.add(
-                  new VisualisationOption("grouped-bar", "Grouped Bar Chart", concattedFkPkName,
-                      purePks.get(0).getName(),
-                      List.of(att.getName()), title));
-            }
+          for (Column att : scalarAtts) {
+            String title = purePks.get(0).getName() + " vs " + att.getName()
+                + ", for each " + concattedFkPkName;
+            options.add(
+                new VisualisationOption("grouped-bar", "Grouped Bar Chart", concattedFkPkName,
+                    purePks.get(0).getName(),
+                    List.of(att.getName()), title));
           }
           break;
         case "spider":
-          for (Column att : atts) {
-            if (isScalarType(att.getType())) {
-              String title = purePks.get(0).getName() + " vs " + att.getName() + ", for each " + concattedFkPkName;
-              options.add(new VisualisationOption("spider", "Spider Chart", concattedFkPkName, purePks.get(0).getName(),
-                  List.of(att.getName()), title));
-            }
+          for (Column att : scalarAtts) {
+            String title = purePks.get(0).getName() + " vs " + att.getName() + ", for each " + concattedFkPkName;
+            options.add(new VisualisationOption("spider", "Spider Chart", concattedFkPkName, purePks.get(0).getName(),
+                List.of(att.getName()), title));
           }
           break;
       }
@@ -956,17 +1697,15 @@ public class DatabaseService {
     } else if (ONE_MANY_VIS_TYPES.contains(vis)) {
       pattern = "one-many";
 
-      List<String> pureFks = fks.stream().filter(fk -> !pks.contains(fk)).map(Column::getName).toList();
-      List<String> parentTables = table.getForeignKeys().stream().filter(fk -> pureFks.contains(fk.getChildColumn()))
-          .map(ForeignKey::getParentTable).distinct()
+      List<String> parentTables = fks.stream().filter(fk -> !fk.isPrimaryKey())
+          .flatMap(fk -> table.getForeignKeys(fk.getName()).stream()).map(ForeignKey::getParentTable).distinct()
           .toList();
 
       List<String> concattedFkNames = new ArrayList<>();
 
       for (String parentTable : parentTables) {
-        List<String> children = table.getForeignKeys().stream()
-            .filter(
-                fk -> !table.getPrimaryKeys().contains(fk.getChildColumn()) && fk.getParentTable().equals(parentTable))
+        List<String> children = snapshot.getForeignKeyGraph().getOutgoing(table.getTableName()).stream()
+            .filter(fk -> !table.isPrimaryKey(fk.getChildColumn()) && fk.getParentTable().equals(parentTable))
             .map(ForeignKey::getChildColumn).toList();
         String concattedFkName = String.join(" | ", children);
         concattedFkNames.add(concattedFkName);
@@ -982,23 +1721,19 @@ public class DatabaseService {
           break;
         case "treemap":
           for (String fkName : concattedFkNames) {
-            for (Column att : atts) {
-              if (isScalarType(att.getType())) {
-                String title = pks.get(0).getName() + " vs " + att.getName() + ", for each " + fkName;
-                options.add(new VisualisationOption("treemap", "Treemap", fkName, pks.get(0).getName(),
-                    List.of(att.getName()), title));
-              }
+            for (Column att : scalarAtts) {
+              String title = pks.get(0).getName() + " vs " + att.getName() + ", for each " + fkName;
+              options.add(new VisualisationOption("treemap", "Treemap", fkName, pks.get(0).getName(),
+                  List.of(att.getName()), title));
             }
           }
           break;
         case "circle-packing":
           for (String fkName : concattedFkNames) {
-            for (Column att : atts) {
-              if (isScalarType(att.getType())) {
-                String title = pks.get(0).getName() + " vs " + att.getName() + ", for each " + fkName;
-                options.add(new VisualisationOption("circle-packing", "Circle Packing", fkName, pks.get(0).getName(),
-                    List.of(att.getName()), title));
-              }
+            for (Column att : scalarAtts) {
+              String title = pks.get(0).getName() + " vs " + att.getName() + ", for each " + fkName;
+              options.add(new VisualisationOption("circle-packing", "Circle Packing", fkName, pks.get(0).getName(),
+                  List.of(att.getName()), title));
             }
           }
           break;
@@ -1016,11 +1751,9 @@ public class DatabaseService {
         case "sankey":
           title = pks.get(0).getName() + " to " + pks.get(1).getName() + ", sized by "
               + atts.get(0).getName();
-          for (Column att : atts) {
-            if (isScalarType(att.getType())) {
-              options.add(new VisualisationOption("sankey", "Sankey Diagram", pks.get(0).getName(),
-                  pks.get(1).getName(), List.of(att.getName()), title));
-            }
+          for (Column att : scalarAtts) {
+            options.add(new VisualisationOption("sankey", "Sankey Diagram", pks.get(0).getName(),
+                pks.get(1).getName(), List.of(att.getName()), title));
           }
           break;
       }
@@ -1031,11 +1764,9 @@ public class DatabaseService {
       switch (vis) {
         case "chord":
           String title = pks.get(0).getName() + " to " + pks.get(1).getName() + ", sized by " + atts.get(0).getName();
-          for (Column att : atts) {
-            if (isScalarType(att.getType())) {
-              options.add(new VisualisationOption("chord", "Chord Diagram", pks.get(0).getName(), pks.get(1).getName(),
-                  List.of(att.getName()), title));
-            }
+          for (Column att : scalarAtts) {
+            options.add(new VisualisationOption("chord", "Chord Diagram", pks.get(0).getName(), pks.get(1).getName(),
+                List.of(att.getName()), title));
           }
           break;
       }
@@ -1044,9 +1775,183 @@ public class DatabaseService {
     return new VFResponse(pattern, options);
   }
 
-  public List<Map<String, Object>> vfExecuteQuery(DFRequest request) {
+  public GovernedResult<ChartRows> vfExecuteQuery(String sessionId, DFRequest request, Integer points,
+      Integer top) {
+
+    DatabaseSession session = connectionManager.getSession(sessionId);
+    MetadataContext context = metadata(session).get();
+    ChartQuery query = top == null ? null : planTopN(context, request, top);
+    if (query == null) {
+      query = binIfLarge(session, context, request, planExecution(context, request, false, null, points, null));
+    }
+    costGuard.check(session, context.getVersion(), QueryCostGuard.VF_EXECUTE, query);
+
+    try {
+      GovernedResult<RawValue> result = fetchRows(session, context.getVersion(), ResourceGovernor.VF_EXECUTE,
+          query);
+      return new GovernedResult<>(new ChartRows(result.getData(), query.getBins()), result.getBytes(),
+          result.getTruncated());
+    } catch (SQLException e) {
+      return new GovernedResult<>(new ChartRows(new RawValue("[]"), query.getBins()), 0, null);
+    }
+  }
+
+  // a scatter or bubble chart estimated above vizor.binning.min-rows points is sent as grid cells instead
+  private ChartQuery binIfLarge(DatabaseSession session, MetadataContext context, DFRequest request,
+      ChartQuery query) {
+
+    if (query.getKeyset() != null || query.getLinePoints() != null) {
+      return query;
+    }
+
+    ChartQuery binned = planBinned(context, request, null, bins);
+    if (binned == null) {
+      return query;
+    }
+
+    CostEstimate estimate = costGuard.estimate(session, context.getVersion(), query);
+    return estimate != null && estimate.getRows() > binningMinRows ? binned : query;
+  }
+
+  // each chart is planned and fetched on the batch executor with its own pooled connection, and written as a
+  // line the moment it is ready, so the batch takes about as long as its slowest chart; a chart that fails
+  // gets an error line instead of failing the others
+  public StreamingResponseBody vfExecuteBatch(String sessionId, List<DFRequest> requests) {
+
+    DatabaseSession session = connectionManager.getSession(sessionId);
+
+    return out -> {
+      CompletionService<BatchResult> results = new ExecutorCompletionService<>(batchExecutor);
+      List<Future<BatchResult>> futures = new ArrayList<>();
+      for (int i = 0; i < requests.size(); i++) {
+        int index = i;
+        DFRequest request = requests.get(i);
+        futures.add(results.submit(() -> executeBatchEntry(session, index, request)));
+      }
+
+      try {
+        for (int i = 0; i < futures.size(); i++) {
+          resultStreamer.writeLine(results.take().get(), out);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(e);
+      } catch (ExecutionException e) {
+        throw new IOException(e.getCause());
+      } finally {
+        // only still running if the client went away
+        futures.forEach(future -> future.cancel(true));
+      }
+    };
+  }
+
+  private BatchResult executeBatchEntry(DatabaseSession session, int index, DFRequest request) {
+    try {
+      MetadataContext context = metadata(session).get();
+      ChartQuery query = binIfLarge(session, context, request, planExecution(context, request));
+      costGuard.check(session, context.getVersion(), QueryCostGuard.VF_EXECUTE, query);
+
+      GovernedResult<RawValue> result = fetchRows(session, context.getVersion(), ResourceGovernor.VF_EXECUTE,
+          query);
+      return new BatchResult(index, result.getData(), result.getTruncated(), query.getBins(), null);
+    } catch (SQLException | RuntimeException e) {
+      return new BatchResult(index, null, null, null, e.getMessage());
+    }
+  }
+
+  // a zoomed line or scatter chart: only rows inside the viewport are read, lines are downsampled to pixels
+  // points per series, and scatters estimated above pixels points come back as a grid of about pixels cells
+  public GovernedResult<ChartRows> vfExecuteViewport(String sessionId, DFRequest request, Viewport viewport,
+      int pixels) {
+
+    DatabaseSession session = connectionManager.getSession(sessionId);
+    MetadataContext context = metadata(session).get();
+    ChartQuery query = planViewport(session, context, request, viewport, pixels);
+    costGuard.check(session, context.getVersion(), QueryCostGuard.VF_EXECUTE, query);
+
+    try {
+      GovernedResult<RawValue> result = fetchRows(session, context.getVersion(), ResourceGovernor.VF_EXECUTE,
+          query);
+      return new GovernedResult<>(new ChartRows(result.getData(), query.getBins()), result.getBytes(),
+          result.getTruncated());
+    } catch (SQLException e) {
+      return new GovernedResult<>(new ChartRows(new RawValue("[]"), query.getBins()), 0, null);
+    }
+  }
+
+  private ChartQuery planViewport(DatabaseSession session, MetadataContext context, DFRequest request,
+      Viewport viewport, int pixels) {
+
+    List<Column> columns = selectedColumns(context.getSnapshot(),
+        joinPlan(context.getSnapshot(), request.getTableNames()).getTableNames(), request.getFullColumnNames());
+    if (isLineShaped(request.getPattern(), columns)) {
+      return planExecution(context, request, false, null, pixels, viewport);
+    }
+
+    int side = Math.max((int) Math.sqrt(pixels), 1);
+    ChartQuery binned = planBinned(context, request, viewport, side);
+    if (binned == null) {
+      throw new InvalidRequestException("Only line, scatter and bubble charts have a viewport");
+    }
+
+    ChartQuery points = planExecution(context, request, false, null, null, viewport);
+    CostEstimate estimate = costGuard.estimate(session, context.getVersion(), points);
+    return estimate != null && estimate.getRows() > pixels ? binned : points;
+  }
+
+  public GovernedResult<KeysetPage> vfExecutePage(String sessionId, DFRequest request, String cursor) {
+
+    DatabaseSession session = connectionManager.getSession(sessionId);
+    MetadataContext context = metadata(session).get();
+    ChartQuery query = planExecution(context, request, true, cursor, null, null);
+    costGuard.check(session, context.getVersion(), QueryCostGuard.VF_EXECUTE, query);
+
+    try {
+      return fetchPage(session, context.getVersion(), ResourceGovernor.VF_EXECUTE, query);
+    } catch (SQLException e) {
+      // a data exception on the seek means the cursor's values do not cast to the key columns' types
+      if (query.getKeyset().getAfter() != null && e.getSQLState() != null && e.getSQLState().startsWith("22")) {
+        throw new InvalidRequestException("Cursor values do not fit the key columns of this query");
+      }
+      return new GovernedResult<>(new KeysetPage(new RawValue("[]"), null, false), 0, null);
+    }
+  }
+
+  public GovernedResult<ColumnarData> vfExecuteColumnar(String sessionId, DFRequest request) {
+
+    DatabaseSession session = connectionManager.getSession(sessionId);
+    MetadataContext context = metadata(session).get();
+    ChartQuery query = planExecution(context, request);
+    costGuard.check(session, context.getVersion(), QueryCostGuard.VF_EXECUTE, query);
+
+    try {
+      return fetchColumnar(session, context.getVersion(), ResourceGovernor.VF_EXECUTE, query);
+    } catch (SQLException e) {
+      return new GovernedResult<>(new ColumnarData(0, List.of()), 0, null);
+    }
+  }
+
+  public StreamingResponseBody vfStreamQuery(String sessionId, DFRequest request, StreamFormat format) {
+
+    DatabaseSession session = connectionManager.getSession(sessionId);
+    MetadataContext context = metadata(session).get();
+    ChartQuery query = planExecution(context, request);
+    costGuard.check(session, context.getVersion(), QueryCostGuard.VF_EXECUTE, query);
+
+    return out -> stream(session, query, null, format, out);
+  }
+
+  // builds the query for a vis option the user already picked
+  private ChartQuery planExecution(MetadataContext context, DFRequest request) {
+    return planExecution(context, request, false, null, null, null);
+  }
+
+  // a paged query reads the page after the cursor, or the first page when there is none; points, when given,
+  // downsamples a query shaped like a line chart to that many points per series and is ignored otherwise
+  private ChartQuery planExecution(MetadataContext context, DFRequest request, boolean paged, String cursor,
+      Integer points, Viewport viewport) {
 
-    List<Map<String, Object>> data = new ArrayList<>();
+    MetadataSnapshot snapshot = context.getSnapshot();
 
     String pattern = request.getPattern();
     List<String> tableNames = request.getTableNames();
@@ -1063,232 +1968,201 @@ public class DatabaseService {
       limit = -1;
     }
 
-    List<TableMetadata> tables = new ArrayList<>();
-    List<Column> columns = new ArrayList<>();
-
-    for (TableMetadata table : databaseMetadata) {
-      if (tableNames.contains(table.getTableName())) {
-        tables.add(table);
-        for (Column column : table.getColumns()) {
-          if (columnNames.contains(column.getName())) {
-            columns.add(column);
-          }
-        }
-      }
-    }
+    JoinPlan plan = joinPlan(snapshot, tableNames);
+    List<Column> columns = selectedColumns(snapshot, plan.getTableNames(), columnNames);
 
     int numPks = (int) columns.stream().filter(Column::isPrimaryKey).count();
 
     List<String> chosenPkNames = columns.stream().filter(Column::isPrimaryKey).map(Column::getName).toList();
     List<String> chosenFkNames = columns.stream().filter(Column::isForeignKey).map(Column::getName).toList();
-    List<String> chosenAttNames = columns.stream().map(Column::getName)
-        .filter(col -> !chosenPkNames.contains(col) && !chosenFkNames.contains(col)).toList();
-
-    try (Connection connection = connectionManager.getConnection()) {
-
-      String queryStr = "";
-
-      if (pattern.equals("basic")) {
-        queryStr = generateBasicQuery(tableNames, columnNames, numPks, chosenPkNames, chosenFkNames,
-            chosenAttNames, filters, limit);
-      } else if (pattern.equals("weak")) {
-        queryStr = generateWeakQuery(tableNames, columnNames, chosenPkNames, chosenFkNames, chosenAttNames, filters,
-            limit);
-      } else if (pattern.equals("one-many")) {
-        queryStr = generateOneManyQuery(tableNames, columnNames, chosenPkNames, chosenFkNames, chosenAttNames, filters,
-            limit);
-      } else {
-        queryStr = generateRegularQuery(tableNames, columnNames, filters, limit);
+    List<String> chosenAttNames = columns.stream().filter(col -> !col.isPrimaryKey() && !col.isForeignKey())
+        .map(Column::getName).toList();
+
+    Keyset keyset = null;
+    if (paged) {
+      List<String> keyNames = keysetKeys(pattern, numPks, chosenPkNames, chosenFkNames);
+      if (keyNames.isEmpty()) {
+        throw new InvalidRequestException("A " + pattern + " query has no key columns to page by");
       }
 
-      // System.out.println(queryStr);
+      keyset = keysetPager.keyset(keyNames, limit, cursor);
+      limit = keyset.getPageSize() + 1;
+    }
 
-      PreparedStatement preparedStatement = connection.prepareStatement(queryStr);
-      ResultSet resultSet = preparedStatement.executeQuery();
+    // a line's x is its one own key and its y an aggregate; a scatter's x and y are its first two attributes
+    if (viewport != null) {
+      viewport = pattern.equals("weak")
+          ? viewport.on(chosenPkNames.stream().filter(pk -> !chosenFkNames.contains(pk)).findFirst().get(), null)
+          : viewport.on(chosenAttNames.get(0), chosenAttNames.get(1));
+    }
 
-      ResultSetMetaData metaData = resultSet.getMetaData();
-      int columnCount = metaData.getColumnCount();
+    List<String> fromTables = fromItems(snapshot, plan, plan.getTableNames(), columns, filters);
 
-      while (resultSet.next()) {
-        Map<String, Object> row = new LinkedHashMap<>();
-        for (int i = 1; i <= columnCount; i++) {
-          row.put(metaData.getColumnName(i), resultSet.getObject(i));
-        }
+    List<Object> params = new ArrayList<>();
+    String queryStr = generateQuery(pattern, fromTables, columnNames, numPks, chosenPkNames, chosenFkNames,
+        chosenAttNames, filters, limit, keyset, viewport, params);
 
-        data.add(row);
-      }
+    Integer linePoints = null;
+    ChartQuery lineSeries = null;
+    if (points != null && keyset == null && isLineShaped(pattern, columns)) {
+      linePoints = Math.max(points, 3);
+      queryStr = lineDownsampler.wrap(queryStr, "\"" + String.join(" | ", chosenFkNames) + "\"");
+      lineSeries = generateLineSeriesQuery(fromTables, columnNames, chosenFkNames, filters, viewport);
+    }
 
-    } catch (SQLException e) {
-      e.printStackTrace();
+    return new ChartQuery(pattern, List.of(), queryStr, params).withKeyset(keyset)
+        .withLinePoints(linePoints, lineSeries);
+  }
+
+  // the binned form of a basic entity query with two (scatter) or three (bubble) numeric attributes, null for
+  // any other query
+  private ChartQuery planBinned(MetadataContext context, DFRequest request, Viewport viewport, int bins) {
+
+    if (!"basic".equals(request.getPattern())) {
+      return null;
+    }
+
+    MetadataSnapshot snapshot = context.getSnapshot();
+    JoinPlan plan = joinPlan(snapshot, request.getTableNames());
+    List<Column> columns = selectedColumns(snapshot, plan.getTableNames(), request.getFullColumnNames());
+    List<Column> atts = columns.stream().filter(col -> !col.isPrimaryKey() && !col.isForeignKey()).toList();
+
+    if (columns.stream().noneMatch(Column::isPrimaryKey) || atts.size() < 2 || atts.size() > 3
+        || !atts.stream().allMatch(att -> NUM_TYPES.contains(att.getType()))) {
+      return null;
+    }
+
+    List<String> attNames = atts.stream().map(Column::getName).toList();
+    if (viewport != null) {
+      viewport = viewport.on(attNames.get(0), attNames.get(1));
     }
 
-    return data;
+    List<Object> params = new ArrayList<>();
+    List<String> fromTables = fromItems(snapshot, plan, plan.getTableNames(), columns, request.getFilters());
+    String queryStr = generateBinnedQuery(fromTables, request.getFullColumnNames(), attNames, request.getFilters(),
+        viewport, bins, params);
+
+    return new ChartQuery("basic", List.of(), queryStr, params).withBins(bins);
   }
 
-  public List<String> vfSelectVis(VFVisSelectRequest request) throws SQLException {
+  // a bar or word-cloud, a one-many chart or a sankey or chord, ranked by its one numeric attribute: the top
+  // keys of the chart, of each parent or of each source, then one "Other" row per group summing the rest.
+  // Null for any other shape, which is read as usual
+  private ChartQuery planTopN(MetadataContext context, DFRequest request, int top) {
 
-    List<String> result = new ArrayList<>();
+    MetadataSnapshot snapshot = context.getSnapshot();
+    String pattern = request.getPattern();
+    List<String> columnNames = request.getFullColumnNames();
+    JoinPlan plan = joinPlan(snapshot, request.getTableNames());
+    List<Column> columns = selectedColumns(snapshot, plan.getTableNames(), columnNames);
 
-    String id = request.getVisId();
+    List<String> chosenPkNames = columns.stream().filter(Column::isPrimaryKey).map(Column::getName).toList();
+    List<String> chosenFkNames = columns.stream().filter(Column::isForeignKey).map(Column::getName).toList();
+    List<Column> atts = columns.stream().filter(col -> !col.isPrimaryKey() && !col.isForeignKey()).toList();
 
-    if (BASIC_VIS_TYPES.contains(id)) {
-      for (TableMetadata table : databaseMetadata) {
-        List<Column> columns = table.getColumns().stream().filter(col -> !(col.isForeignKey() && !col.isPrimaryKey()))
-            .toList();
-        int numPks = (int) columns.stream().filter(Column::isPrimaryKey).count();
-        int totalFks = (int) columns.stream().filter(col -> col.isForeignKey() && col.isPrimaryKey()).count();
-
-        Column pk = columns.stream().filter(Column::isPrimaryKey).findFirst().get();
-        List<String> attTypes = columns.stream().filter(col -> !col.isPrimaryKey() && !col.isForeignKey())
-            .map(Column::getType).toList();
-
-        if (isBasicEntity(numPks, totalFks, List.of(table), columns)) {
-          if (id.equals("bar")) {
-            if (attTypes.stream().filter(this::isScalarType).count() >= 1) {
-              result.add(table.getTableName());
-            }
-          } else if (id.equals("calendar")) {
-            if (attTypes.stream().filter(TEMP_TYPES::contains).count() >= 1) {
-              result.add(table.getTableName());
-            }
-          } else if (id.equals("scatter")) {
-            if (attTypes.stream().filter(this::isScalarType).count() >= 2) {
-              result.add(table.getTableName());
-            }
-          } else if (id.equals("bubble")) {
-            if (attTypes.stream().filter(this::isScalarType).count() >= 3) {
-              result.add(table.getTableName());
-            }
-          } else if (id.equals("choropleth")) {
-            boolean geographicalKey = GEO_TABLE_NAMES.contains(pk.getName())
-                || (GEO_TABLE_NAMES.contains(pk.getTableName()) && GEO_COLUMN_NAMES.contains(pk.getName()));
-            if (attTypes.size() >= 1 && geographicalKey) {
-              result.add(table.getTableName());
-            }
-          } else if (id.equals("word-cloud")) {
-            if (LEX_TYPES.contains(pk.getType()) && attTypes.stream().filter(this::isScalarType).count() >= 1) {
-              result.add(table.getTableName());
-            }
-          }
-        }
-      }
-    } else if (WEAK_VIS_TYPES.contains(id)) {
-      for (TableMetadata table : databaseMetadata) {
-        List<Column> columns = table.getColumns();
+    if (atts.size() != 1 || !NUM_TYPES.contains(atts.get(0).getType())) {
+      return null;
+    }
 
-        Column k2 = columns.stream().filter(col -> col.isPrimaryKey() && !col.isForeignKey()).findFirst().orElse(null);
+    String att = atts.get(0).getName();
+    List<String> chosenPureFks = chosenFkNames.stream().filter(fk -> !chosenPkNames.contains(fk)).toList();
 
-        if (k2 == null) {
-          continue;
-        }
+    String group;
+    String key;
+    List<String> outputs;
+    if (pattern.equals("basic") && chosenPkNames.size() == 1 && columns.size() == 2) {
+      group = null;
+      key = chosenPkNames.get(0);
+      outputs = List.of(key, att);
+    } else if (pattern.equals("one-many") && chosenPureFks.size() > 0 && chosenPkNames.size() == 1
+        && columns.size() == chosenPureFks.size() + 2) {
+      group = "\"" + String.join(" | ", chosenPureFks) + "\"";
+      key = chosenPkNames.get(0);
+      outputs = List.of(group, key, att);
+    } else if ((pattern.equals("many-many") || pattern.equals("reflexive")) && chosenPkNames.size() == 2
+        && columns.size() == 3) {
+      group = chosenPkNames.get(0);
+      key = chosenPkNames.get(1);
+      outputs = columnNames;
+    } else {
+      return null;
+    }
 
-        List<String> pkNames = columns.stream().filter(Column::isPrimaryKey).map(Column::getName).toList();
-        List<String> fkNames = columns.stream().filter(Column::isForeignKey).map(Column::getName).toList();
+    // the ranking needs every row, so the request's limit is not applied to the inner query
+    List<String> fromTables = fromItems(snapshot, plan, plan.getTableNames(), columns, request.getFilters());
 
-        List<String> attTypes = columns.stream().filter(col -> !col.isPrimaryKey() && !col.isForeignKey())
-            .map(Column::getType).toList();
+    List<Object> params = new ArrayList<>();
+    String innerStr = generateQuery(pattern, fromTables, columnNames, chosenPkNames.size(), chosenPkNames,
+        chosenFkNames, List.of(att), request.getFilters(), -1, null, null, params);
+    String queryStr = generateTopNQuery(innerStr, outputs, group, key, att, Math.max(top, 1));
 
-        if (isWeakEntity(List.of(table), columns)) {
-          if (id.equals("line")) {
-            if (isScalarType(k2.getType()) && attTypes.stream().filter(this::isScalarType).count() >= 1) {
-              result.add(table.getTableName());
-            }
-          } else if (id.equals("stacked-bar")) {
-            if (isCompleteWeak(pkNames, fkNames, List.of(table.getTableName()))
-                && attTypes.stream().filter(this::isScalarType).count() >= 1) {
-              result.add(table.getTableName());
-            }
-          } else if (id.equals("grouped-bar")) {
-            if (attTypes.stream().filter(this::isScalarType).count() >= 1) {
-              result.add(table.getTableName());
-            }
-          } else if (id.equals("spider")) {
-            if (isCompleteWeak(pkNames, fkNames, List.of(table.getTableName()))
-                && attTypes.stream().filter(this::isScalarType).count() >= 1) {
-              result.add(table.getTableName());
-            }
-          }
-        }
-      }
-    } else if (ONE_MANY_VIS_TYPES.contains(id)) {
-      for (TableMetadata table : databaseMetadata) {
-
-        List<ForeignKey> fks = table.getForeignKeys();
-        List<String> fkParents = fks.stream().map(ForeignKey::getParentTable).distinct().toList();
-
-        for (String parent : fkParents) {
-          List<Column> columns = new ArrayList<>();
-          for (Column col : table.getColumns()) {
-            if (!col.isForeignKey() || (col.isPrimaryKey() && col.isForeignKey())) {
-              columns.add(col);
-              continue;
-            }
+    return new ChartQuery(pattern, List.of(), queryStr, params);
+  }
 
-            if (col.isForeignKey() && !col.isPrimaryKey()) {
-              ForeignKey currFk = fks.stream().filter(fk -> fk.getChildColumn().equals(col.getName())).findFirst()
-                  .get();
-              if (currFk.getParentTable().equals(parent)) {
-                columns.add(col);
-              }
-            }
-          }
+  private List<Column> selectedColumns(MetadataSnapshot snapshot, List<String> tableNames,
+      List<String> columnNames) {
 
-          int numPks = (int) columns.stream().filter(Column::isPrimaryKey).count();
-          int numPureFks = (int) columns.stream().filter(col -> col.isForeignKey() && !col.isPrimaryKey()).count();
+    List<Column> columns = new ArrayList<>();
 
-          List<String> attTypes = columns.stream().filter(col -> !col.isPrimaryKey() && !col.isForeignKey())
-              .map(Column::getType).toList();
+    Set<String> selectedColumnNames = new HashSet<>(columnNames);
 
-          if (isOneManyRelationship(numPks, numPureFks, List.of(table), columns)
-              && !result.contains(table.getTableName())) {
-            if (id.equals("hierarchy-tree")) {
-              result.add(table.getTableName());
-            } else if (id.equals("treemap")) {
-              if (attTypes.stream().filter(this::isScalarType).count() >= 1) {
-                result.add(table.getTableName());
-              }
-            } else if (id.equals("circle-packing")) {
-              if (attTypes.stream().filter(this::isScalarType).count() >= 1) {
-                result.add(table.getTableName());
-              }
-            }
-          }
-        }
+    for (String tableName : tableNames) {
+      TableMetadata table = snapshot.getTable(tableName);
+      if (table == null) {
+        continue;
       }
-    } else if (MANY_MANY_VIS_TYPES.contains(id)) {
-      for (TableMetadata table : databaseMetadata) {
-        List<Column> columns = table.getColumns();
-        int numPks = (int) columns.stream().filter(Column::isPrimaryKey).count();
-
-        List<String> attTypes = columns.stream().filter(col -> !col.isPrimaryKey() && !col.isForeignKey())
-            .map(Column::getType).toList();
-
-        if (isManyManyRelationship(numPks, List.of(table)) && !isReflexive(List.of(table))) {
-          if (id.equals("network")) {
-            result.add(table.getTableName());
-          } else if (id.equals("sankey")) {
-            if (attTypes.stream().filter(this::isScalarType).count() >= 1) {
-              result.add(table.getTableName());
-            }
-          }
+
+      // a name shared by joined tables is read from the first of them
+      for (Column column : table.getColumns()) {
+        if (selectedColumnNames.remove(column.getName())) {
+          columns.add(column);
         }
       }
-    } else if (REFLEXIVE_VIS_TYPES.contains(id)) {
-      for (TableMetadata table : databaseMetadata) {
-        List<Column> columns = table.getColumns();
-        int numPks = (int) columns.stream().filter(Column::isPrimaryKey).count();
+    }
+
+    return columns;
+  }
 
-        List<String> attTypes = columns.stream().filter(col -> !col.isPrimaryKey() && !col.isForeignKey())
-            .map(Column::getType).toList();
+  // a weak query with one x key, at least one series key and one y attribute, all scalar
+  private boolean isLineShaped(String pattern, List<Column> columns) {
 
-        if (isManyManyRelationship(numPks, List.of(table)) && isReflexive(List.of(table))) {
-          if (attTypes.stream().filter(this::isScalarType).count() >= 1) {
-            result.add(table.getTableName());
-          }
+    if (!pattern.equals("weak")) {
+      return false;
+    }
+
+    List<Column> series = columns.stream().filter(Column::isForeignKey).toList();
+    List<Column> x = columns.stream().filter(col -> col.isPrimaryKey() && !col.isForeignKey()).toList();
+    List<Column> y = columns.stream().filter(col -> !col.isPrimaryKey() && !col.isForeignKey()).toList();
+
+    return series.size() > 0 && x.size() == 1 && y.size() == 1 && isScalarType(x.get(0).getType())
+        && isScalarType(y.get(0).getType());
+  }
+
+  public List<String> vfSelectVis(String sessionId, VFVisSelectRequest request) throws SQLException {
+
+    DatabaseSession session = connectionManager.getSession(sessionId);
+    ClassificationIndex index = metadata(session).get().getClassificationIndex();
+    List<String> result = new ArrayList<>();
+
+    String id = request.getVisId();
+
+    for (TableClassification classification : index.getTables()) {
+      if (!classification.supports(id)) {
+        continue;
+      }
+
+      if (COMPLETE_WEAK_VIS_TYPES.contains(id)) {
+        List<String> pkNames = classification.getPrimaryKeys().stream().map(Column::getName).toList();
+        List<String> fkNames = classification.getForeignKeys().stream().map(Column::getName).toList();
+
+        if (!isCompleteWeak(session, index, pkNames, fkNames, List.of(classification.getTableName()))) {
+          continue;
         }
       }
+
+      result.add(classification.getTableName());
     }
 
     return result;
   }
-}
\ No newline at end of file
+}
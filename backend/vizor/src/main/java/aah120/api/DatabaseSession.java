@@ -0,0 +1,46 @@
+package aah120.api;
+
+public class DatabaseSession {
+
+  private final String id;
+  private final String connectionKey;
+  private final String poolKey;
+  private final String user;
+  private volatile long lastUsed;
+
+  public DatabaseSession(String id, String connectionKey, String poolKey, String user) {
+    this.id = id;
+    this.connectionKey = connectionKey;
+    this.poolKey = poolKey;
+    this.user = user;
+    this.lastUsed = System.currentTimeMillis();
+  }
+
+  // handed to the client at login and sent back on every request
+  public String getId() {
+    return id;
+  }
+
+  // database + user identity, shared by sessions on the same database; keys snapshots and cached results
+  public String getConnectionKey() {
+    return connectionKey;
+  }
+
+  // database + credentials identity of the pool this session borrows from
+  public String getPoolKey() {
+    return poolKey;
+  }
+
+  // the database user logged in as, which per-user budgets are looked up by
+  public String getUser() {
+    return user;
+  }
+
+  public long getLastUsed() {
+    return lastUsed;
+  }
+
+  public void touch() {
+    lastUsed = System.currentTimeMillis();
+  }
+}
@@ -0,0 +1,101 @@
+package aah120.api;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import aah120.dto.ForeignKey;
+import aah120.dto.TableMetadata;
+
+public class ForeignKeyGraph {
+
+  // child table -> foreign keys it declares, and parent table -> foreign keys pointing at it
+  private final Map<String, List<ForeignKey>> outgoing;
+  private final Map<String, List<ForeignKey>> incoming;
+  private final Map<String, Set<String>> parentTables;
+
+  public ForeignKeyGraph(Collection<TableMetadata> tables) {
+    this.outgoing = new HashMap<>();
+    this.incoming = new HashMap<>();
+    this.parentTables = new HashMap<>();
+
+    for (TableMetadata table : tables) {
+      for (ForeignKey fk : table.getForeignKeys()) {
+        outgoing.computeIfAbsent(fk.getChildTable(), t -> new ArrayList<>()).add(fk);
+        incoming.computeIfAbsent(fk.getParentTable(), t -> new ArrayList<>()).add(fk);
+        parentTables.computeIfAbsent(fk.getChildTable(), t -> new LinkedHashSet<>()).add(fk.getParentTable());
+      }
+    }
+  }
+
+  public List<ForeignKey> getOutgoing(String tableName) {
+    return outgoing.getOrDefault(tableName, List.of());
+  }
+
+  public List<ForeignKey> getIncoming(String tableName) {
+    return incoming.getOrDefault(tableName, List.of());
+  }
+
+  // every column of the foreign key the given column belongs to, in key order; a key introspected without a
+  // name (the JDBC fallback allows it) cannot be matched to the rest of its columns, so it stands alone
+  public List<ForeignKey> getConstraint(ForeignKey fk) {
+    if (fk.getConstraintName() == null) {
+      return List.of(fk);
+    }
+
+    return getOutgoing(fk.getChildTable()).stream()
+        .filter(other -> Objects.equals(other.getConstraintName(), fk.getConstraintName())).toList();
+  }
+
+  // distinct tables referenced by the table's foreign keys, in declaration order
+  public Set<String> getParentTables(String tableName) {
+    return parentTables.getOrDefault(tableName, Set.of());
+  }
+
+  // the fewest foreign keys linking any of the from tables to the target, followed in either direction and
+  // ordered from the from side; null when no path links them. A key over several columns is given by the
+  // first of them, see getConstraint
+  public List<ForeignKey> shortestPath(Collection<String> from, String to) {
+
+    Map<String, ForeignKey> reachedBy = new HashMap<>();
+    Set<String> visited = new LinkedHashSet<>(from);
+    Deque<String> queue = new ArrayDeque<>(from);
+
+    while (!queue.isEmpty() && !visited.contains(to)) {
+      String table = queue.poll();
+
+      List<ForeignKey> edges = new ArrayList<>(getOutgoing(table));
+      edges.addAll(getIncoming(table));
+
+      for (ForeignKey fk : edges) {
+        String next = fk.getChildTable().equals(table) ? fk.getParentTable() : fk.getChildTable();
+        if (visited.add(next)) {
+          reachedBy.put(next, fk);
+          queue.add(next);
+        }
+      }
+    }
+
+    if (!visited.contains(to)) {
+      return null;
+    }
+
+    List<ForeignKey> path = new ArrayList<>();
+    for (String table = to; reachedBy.containsKey(table);) {
+      ForeignKey fk = reachedBy.get(table);
+      path.add(fk);
+      table = fk.getChildTable().equals(table) ? fk.getParentTable() : fk.getChildTable();
+    }
+    Collections.reverse(path);
+
+    return path;
+  }
+}
@@ -0,0 +1,32 @@
+package aah120.api;
+
+public class GovernedResult<T> {
+
+  public static final String ROWS = "rows";
+  public static final String BYTES = "bytes";
+  public static final String TIMEOUT = "timeout";
+
+  private final T data;
+  private final long bytes;
+  private final String truncated;
+
+  public GovernedResult(T data, long bytes, String truncated) {
+    this.data = data;
+    this.bytes = bytes;
+    this.truncated = truncated;
+  }
+
+  // the rows read before any budget ran out
+  public T getData() {
+    return data;
+  }
+
+  public long getBytes() {
+    return bytes;
+  }
+
+  // null for a complete result, otherwise the budget that cut it short: rows, bytes or timeout
+  public String getTruncated() {
+    return truncated;
+  }
+}
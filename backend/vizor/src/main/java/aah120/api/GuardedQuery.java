@@ -0,0 +1,29 @@
+package aah120.api;
+
+// a query that fits its endpoint's budget, with whatever the guard changed to make it fit
+public class GuardedQuery {
+
+  private final ChartQuery query;
+  private final TableSample sample;
+  private final Integer rowLimit;
+
+  public GuardedQuery(ChartQuery query, TableSample sample, Integer rowLimit) {
+    this.query = query;
+    this.sample = sample;
+    this.rowLimit = rowLimit;
+  }
+
+  public ChartQuery getQuery() {
+    return query;
+  }
+
+  // null unless the query reads a table through TABLESAMPLE, whether for a preview or to fit the budget
+  public TableSample getSample() {
+    return sample;
+  }
+
+  // null unless the guard tightened the limit
+  public Integer getRowLimit() {
+    return rowLimit;
+  }
+}
@@ -0,0 +1,10 @@
+package aah120.api;
+
+public class InvalidRequestException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  public InvalidRequestException(String message) {
+    super(message);
+  }
+}
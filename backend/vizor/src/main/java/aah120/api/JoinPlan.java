@@ -0,0 +1,163 @@
+package aah120.api;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import aah120.dto.ForeignKey;
+
+// the tables of a request joined along the shortest foreign key paths between them, rather than crossed.
+// When every other table is reached from one table through parents only, that table comes first and the join
+// has exactly its rows, the others adding columns that depend on them
+public class JoinPlan {
+
+  private final List<String> tableNames;
+  // every column of the foreign key each table after the first is joined by
+  private final List<List<ForeignKey>> joins;
+  private final boolean anchored;
+
+  private JoinPlan(List<String> tableNames, List<List<ForeignKey>> joins, boolean anchored) {
+    this.tableNames = tableNames;
+    this.joins = joins;
+    this.anchored = anchored;
+  }
+
+  // tables a path runs through are joined too, so a junction table links the two sides of a many-many
+  public static JoinPlan plan(ForeignKeyGraph graph, List<String> requested) {
+
+    List<String> distinct = new ArrayList<>(new LinkedHashSet<>(requested));
+    if (distinct.size() < 2) {
+      return new JoinPlan(distinct, List.of(), true);
+    }
+
+    Set<String> reached = new LinkedHashSet<>(distinct.subList(0, 1));
+    List<ForeignKey> edges = new ArrayList<>();
+
+    for (String table : distinct) {
+      if (reached.contains(table)) {
+        continue;
+      }
+
+      List<ForeignKey> path = graph.shortestPath(reached, table);
+      if (path == null) {
+        throw new InvalidRequestException("No foreign key path joins " + table + " to " + String.join(", ", reached));
+      }
+
+      for (ForeignKey fk : path) {
+        edges.add(fk);
+        reached.add(fk.getChildTable());
+        reached.add(fk.getParentTable());
+      }
+    }
+
+    // a table that is the parent in two joins repeats its rows once per child on either side
+    Map<String, Integer> parentJoins = new HashMap<>();
+    for (ForeignKey fk : edges) {
+      parentJoins.merge(fk.getParentTable(), 1, Integer::sum);
+    }
+    boolean anchored = parentJoins.values().stream().allMatch(n -> n == 1);
+
+    String root = anchored
+        ? reached.stream().filter(t -> !parentJoins.containsKey(t)).findFirst().get()
+        : distinct.get(0);
+
+    // each table after the first is joined to one before it
+    List<String> tableNames = new ArrayList<>(List.of(root));
+    List<List<ForeignKey>> joins = new ArrayList<>();
+    for (int i = 0; i < tableNames.size(); i++) {
+      String table = tableNames.get(i);
+      for (ForeignKey fk : edges) {
+        String other = fk.getChildTable().equals(table) ? fk.getParentTable()
+            : fk.getParentTable().equals(table) ? fk.getChildTable() : null;
+        if (other != null && !tableNames.contains(other)) {
+          tableNames.add(other);
+          joins.add(graph.getConstraint(fk));
+        }
+      }
+    }
+
+    return new JoinPlan(tableNames, joins, anchored);
+  }
+
+  // in join order; the first is the one the rows belong to when the plan is anchored
+  public List<String> getTableNames() {
+    return tableNames;
+  }
+
+  public boolean isAnchored() {
+    return anchored;
+  }
+
+  public boolean isJoined() {
+    return !joins.isEmpty();
+  }
+
+  // fromItems are the tables as the query reads them (e.g. sampled), in join order. A joined plan is a single
+  // item, each table narrowed to the columns the query reads and the ones it is joined by, so a bare column
+  // name only ever resolves to one table
+  public List<String> from(List<String> fromItems, Map<String, Set<String>> columnsByTable) {
+
+    if (!isJoined()) {
+      return fromItems;
+    }
+
+    Map<String, Set<String>> projected = new HashMap<>();
+    for (String table : tableNames) {
+      projected.put(table, new LinkedHashSet<>(columnsByTable.getOrDefault(table, Set.of())));
+    }
+    Set<String> merged = new LinkedHashSet<>();
+    for (List<ForeignKey> join : joins) {
+      for (ForeignKey fk : join) {
+        projected.get(fk.getChildTable()).add(fk.getChildColumn());
+        projected.get(fk.getParentTable()).add(fk.getParentColumn());
+        if (joinsByName(join)) {
+          merged.add(fk.getChildColumn());
+        }
+      }
+    }
+
+    for (Map.Entry<String, Set<String>> entry : columnsByTable.entrySet()) {
+      for (String column : entry.getValue()) {
+        boolean elsewhere = tableNames.stream()
+            .anyMatch(t -> !t.equals(entry.getKey()) && projected.get(t).contains(column));
+        if (elsewhere && !merged.contains(column)) {
+          throw new InvalidRequestException("Column " + column + " is in more than one of the joined tables");
+        }
+      }
+    }
+
+    StringBuilder sb = new StringBuilder();
+
+    for (int i = 0; i < tableNames.size(); i++) {
+      String table = tableNames.get(i);
+
+      if (i > 0) {
+        sb.append(" JOIN ");
+      }
+      sb.append("(SELECT ").append(String.join(", ", projected.get(table))).append(" FROM ").append(fromItems.get(i))
+          .append(") ").append(table);
+
+      if (i > 0) {
+        List<ForeignKey> join = joins.get(i - 1);
+        if (joinsByName(join)) {
+          sb.append(" USING (").append(String.join(", ", join.stream().map(ForeignKey::getChildColumn).toList()))
+              .append(")");
+        } else {
+          sb.append(" ON ").append(String.join(" AND ", join.stream().map(fk -> fk.getChildTable() + "."
+              + fk.getChildColumn() + " = " + fk.getParentTable() + "." + fk.getParentColumn()).toList()));
+        }
+      }
+    }
+
+    return List.of(sb.toString());
+  }
+
+  // USING only when every column of the key has the same name on both sides, otherwise the ones that do
+  // would still be ambiguous
+  private static boolean joinsByName(List<ForeignKey> join) {
+    return join.stream().allMatch(fk -> fk.getChildColumn().equals(fk.getParentColumn()));
+  }
+}
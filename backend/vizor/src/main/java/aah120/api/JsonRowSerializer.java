@@ -0,0 +1,218 @@
+package aah120.api;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.RawValue;
+
+// writes result set rows as JSON objects without building a map per row: column names and types are
+// resolved once, and each column gets a reader that uses the primitive getter for its type
+@Component
+public class JsonRowSerializer {
+
+  private final ObjectMapper objectMapper;
+
+  public JsonRowSerializer(ObjectMapper objectMapper) {
+    this.objectMapper = objectMapper;
+  }
+
+  public RowWriter compile(ResultSetMetaData metaData) throws SQLException {
+    return compile(metaData, metaData.getColumnCount());
+  }
+
+  // writes only the first columnCount columns, for queries that select extra columns the client does not see
+  public RowWriter compile(ResultSetMetaData metaData, int columnCount) throws SQLException {
+
+    // a repeated column name keeps its first position and its last value, as it would in a map
+    Map<String, Integer> lastIndexByName = new LinkedHashMap<>();
+    for (int i = 1; i <= columnCount; i++) {
+      lastIndexByName.put(metaData.getColumnName(i), i);
+    }
+
+    List<SerializedString> names = new ArrayList<>();
+    List<ColumnWriter> columns = new ArrayList<>();
+    for (Map.Entry<String, Integer> column : lastIndexByName.entrySet()) {
+      names.add(new SerializedString(column.getKey()));
+      columns.add(columnWriter(metaData.getColumnType(column.getValue()), column.getValue()));
+    }
+
+    return new RowWriter(names.toArray(new SerializedString[0]), columns.toArray(new ColumnWriter[0]));
+  }
+
+  // collects the rows into one JSON array held as text, which takes far less heap than the same rows as maps
+  public ResourceGovernor.RowSink<RawValue> open(ResultSetMetaData metaData) throws SQLException {
+    return open(metaData, metaData.getColumnCount());
+  }
+
+  public ResourceGovernor.RowSink<RawValue> open(ResultSetMetaData metaData, int columnCount) throws SQLException {
+
+    RowWriter writer = compile(metaData, columnCount);
+    ByteArrayBuilder buffer = new ByteArrayBuilder();
+
+    try {
+      JsonGenerator generator = objectMapper.getFactory().createGenerator(buffer, JsonEncoding.UTF8);
+      generator.writeStartArray();
+
+      return new ResourceGovernor.RowSink<>() {
+
+        @Override
+        public long add(ResultSet resultSet) throws SQLException {
+          long before = buffer.size() + generator.getOutputBuffered();
+          try {
+            writer.write(resultSet, generator);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+          return buffer.size() + generator.getOutputBuffered() - before;
+        }
+
+        @Override
+        public RawValue finish() {
+          try {
+            generator.writeEndArray();
+            generator.close();
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+          return new RawValue(new String(buffer.toByteArray(), StandardCharsets.UTF_8));
+        }
+      };
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private ColumnWriter columnWriter(int sqlType, int i) {
+    switch (sqlType) {
+      case Types.BIT:
+      case Types.BOOLEAN:
+        return (rs, g) -> {
+          boolean value = rs.getBoolean(i);
+          if (rs.wasNull()) {
+            g.writeNull();
+          } else {
+            g.writeBoolean(value);
+          }
+        };
+      case Types.TINYINT:
+      case Types.SMALLINT:
+      case Types.INTEGER:
+        return (rs, g) -> {
+          int value = rs.getInt(i);
+          if (rs.wasNull()) {
+            g.writeNull();
+          } else {
+            g.writeNumber(value);
+          }
+        };
+      case Types.BIGINT:
+        return (rs, g) -> {
+          long value = rs.getLong(i);
+          if (rs.wasNull()) {
+            g.writeNull();
+          } else {
+            g.writeNumber(value);
+          }
+        };
+      case Types.REAL:
+        return (rs, g) -> {
+          float value = rs.getFloat(i);
+          if (rs.wasNull()) {
+            g.writeNull();
+          } else {
+            g.writeNumber(value);
+          }
+        };
+      case Types.FLOAT:
+      case Types.DOUBLE:
+        return (rs, g) -> {
+          double value = rs.getDouble(i);
+          if (rs.wasNull()) {
+            g.writeNull();
+          } else {
+            g.writeNumber(value);
+          }
+        };
+      case Types.NUMERIC:
+      case Types.DECIMAL:
+        return (rs, g) -> {
+          BigDecimal value;
+          try {
+            value = rs.getBigDecimal(i);
+          } catch (SQLException e) {
+            // NaN has no BigDecimal form
+            g.writeObject(rs.getObject(i));
+            return;
+          }
+          if (value == null) {
+            g.writeNull();
+          } else {
+            g.writeNumber(value);
+          }
+        };
+      case Types.CHAR:
+      case Types.VARCHAR:
+      case Types.LONGVARCHAR:
+      case Types.NCHAR:
+      case Types.NVARCHAR:
+      case Types.LONGNVARCHAR:
+        return (rs, g) -> {
+          String value = rs.getString(i);
+          if (value == null) {
+            g.writeNull();
+          } else {
+            g.writeString(value);
+          }
+        };
+      case Types.DATE:
+        return (rs, g) -> g.writeObject(rs.getDate(i));
+      case Types.TIMESTAMP:
+        return (rs, g) -> g.writeObject(rs.getTimestamp(i));
+      default:
+        // times, json, arrays and anything unusual are written the way the object mapper writes them
+        return (rs, g) -> g.writeObject(rs.getObject(i));
+    }
+  }
+
+  private interface ColumnWriter {
+    void write(ResultSet resultSet, JsonGenerator generator) throws SQLException, IOException;
+  }
+
+  public static class RowWriter {
+
+    private final SerializedString[] names;
+    private final ColumnWriter[] columns;
+
+    private RowWriter(SerializedString[] names, ColumnWriter[] columns) {
+      this.names = names;
+      this.columns = columns;
+    }
+
+    // the result set's current row as one JSON object
+    public void write(ResultSet resultSet, JsonGenerator generator) throws SQLException, IOException {
+      generator.writeStartObject();
+      for (int i = 0; i < columns.length; i++) {
+        generator.writeFieldName(names[i]);
+        columns[i].write(resultSet, generator);
+      }
+      generator.writeEndObject();
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package aah120.api;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// one page of a keyset-paged query: rows ordered by the keys, starting after the given key values
+public class Keyset {
+
+  private static final String KEY_ALIAS = "__vizor_key_";
+
+  private final List<String> keyNames;
+  private final List<String> after;
+  private final int pageSize;
+
+  public Keyset(List<String> keyNames, List<String> after, int pageSize) {
+    this.keyNames = keyNames;
+    this.after = after;
+    this.pageSize = pageSize;
+  }
+
+  public List<String> getKeyNames() {
+    return keyNames;
+  }
+
+  // null on the first page; a null value is a NULL key
+  public List<String> getAfter() {
+    return after;
+  }
+
+  public int getPageSize() {
+    return pageSize;
+  }
+
+  // the keys go last in the select list, so the last row's values can be read without being sent as data
+  public void appendKeyColumns(StringBuilder sb) {
+    for (int i = 0; i < keyNames.size(); i++) {
+      sb.append(", ").append(keyNames.get(i)).append(" AS ").append(KEY_ALIAS).append(i);
+    }
+  }
+
+  // a seek rather than OFFSET, so a btree on the keys starts the scan at the page. Keys may be NULL (a basic
+  // query without a primary key pages by its foreign keys), which sort last and which a row comparison never
+  // matches, so the seek is spelled out key by key: equal on the keys before, then after on this one
+  public void appendSeek(StringBuilder sb, List<Object> params) {
+    if (after == null) {
+      return;
+    }
+
+    List<String> terms = new ArrayList<>();
+    for (int i = 0; i < keyNames.size(); i++) {
+      // nothing sorts after NULL on this key
+      if (after.get(i) == null) {
+        continue;
+      }
+
+      List<String> conditions = new ArrayList<>();
+      for (int j = 0; j < i; j++) {
+        conditions.add(equalsAfter(j, params));
+      }
+      conditions.add("(" + keyNames.get(i) + " > ? OR " + keyNames.get(i) + " IS NULL)");
+      params.add(new ChartQuery.UntypedParam(after.get(i)));
+      terms.add(String.join(" AND ", conditions));
+    }
+
+    // the last row had NULL in every key, so it was the last row there is
+    sb.append(" AND ").append(terms.isEmpty() ? "FALSE" : "(" + String.join(" OR ", terms) + ")");
+  }
+
+  private String equalsAfter(int i, List<Object> params) {
+    if (after.get(i) == null) {
+      return keyNames.get(i) + " IS NULL";
+    }
+
+    params.add(new ChartQuery.UntypedParam(after.get(i)));
+    return keyNames.get(i) + " = ?";
+  }
+
+  public void appendOrderBy(StringBuilder sb) {
+    sb.append(" ORDER BY ").append(String.join(", ", keyNames));
+  }
+}
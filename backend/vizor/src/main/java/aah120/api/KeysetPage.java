@@ -0,0 +1,31 @@
+package aah120.api;
+
+import com.fasterxml.jackson.databind.util.RawValue;
+
+public class KeysetPage {
+
+  private final RawValue rows;
+  private final String lastCursor;
+  private final boolean more;
+
+  public KeysetPage(RawValue rows, String lastCursor, boolean more) {
+    this.rows = rows;
+    this.lastCursor = lastCursor;
+    this.more = more;
+  }
+
+  // the page's rows as a JSON array, already serialised
+  public RawValue getRows() {
+    return rows;
+  }
+
+  // null once the last page has been read
+  public String getNextCursor() {
+    return more ? lastCursor : null;
+  }
+
+  // a page the governor cut short continues after its last row like any other
+  public KeysetPage cutShort() {
+    return new KeysetPage(rows, lastCursor, true);
+  }
+}
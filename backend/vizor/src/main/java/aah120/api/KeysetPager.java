@@ -0,0 +1,137 @@
+package aah120.api;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.RawValue;
+
+// cursors are the key names and the last row's key values as text (null for a NULL key), base64 encoded so
+// clients treat them as opaque; the names are checked so a cursor cannot be replayed against a query ordered
+// by other keys
+@Component
+public class KeysetPager {
+
+  private final JsonRowSerializer rowSerializer;
+  private final ObjectMapper objectMapper;
+  private final int defaultPageSize;
+  private final int maxPageSize;
+
+  public KeysetPager(JsonRowSerializer rowSerializer, ObjectMapper objectMapper,
+      @Value("${vizor.paging.default-page-size}") int defaultPageSize,
+      @Value("${vizor.paging.max-page-size}") int maxPageSize) {
+    this.rowSerializer = rowSerializer;
+    this.objectMapper = objectMapper;
+    this.defaultPageSize = defaultPageSize;
+    this.maxPageSize = maxPageSize;
+  }
+
+  // the request's limit is the page size; a null cursor asks for the first page
+  public Keyset keyset(List<String> keyNames, int limit, String cursor) {
+
+    int pageSize = limit <= 0 ? defaultPageSize : Math.min(limit, maxPageSize);
+
+    if (cursor == null || cursor.isEmpty()) {
+      return new Keyset(keyNames, null, pageSize);
+    }
+
+    JsonNode token;
+    try {
+      token = objectMapper.readTree(Base64.getUrlDecoder().decode(cursor));
+    } catch (IllegalArgumentException | IOException e) {
+      throw new InvalidRequestException("Malformed cursor");
+    }
+    if (token == null || !token.isObject()) {
+      throw new InvalidRequestException("Malformed cursor");
+    }
+
+    List<String> tokenKeys = textValues(token.get("keys"));
+    List<String> after = textValues(token.get("after"));
+    if (!keyNames.equals(tokenKeys) || after == null || after.size() != keyNames.size()) {
+      throw new InvalidRequestException("Cursor was issued for a query paged by other keys than " + keyNames);
+    }
+
+    return new Keyset(keyNames, after, pageSize);
+  }
+
+  // writes at most a page of rows and reads one more only to learn whether another page follows
+  public ResourceGovernor.RowSinkFactory<KeysetPage> sink(Keyset keyset) {
+    return metaData -> open(metaData, keyset);
+  }
+
+  private ResourceGovernor.RowSink<KeysetPage> open(ResultSetMetaData metaData, Keyset keyset)
+      throws SQLException {
+
+    int dataColumns = metaData.getColumnCount() - keyset.getKeyNames().size();
+    ResourceGovernor.RowSink<RawValue> rows = rowSerializer.open(metaData, dataColumns);
+
+    return new ResourceGovernor.RowSink<>() {
+
+      private final String[] last = new String[keyset.getKeyNames().size()];
+      private int written;
+      private boolean more;
+
+      @Override
+      public long add(ResultSet resultSet) throws SQLException {
+        if (written == keyset.getPageSize()) {
+          more = true;
+          return 0;
+        }
+
+        for (int i = 0; i < last.length; i++) {
+          last[i] = resultSet.getString(dataColumns + i + 1);
+        }
+        written++;
+        return rows.add(resultSet);
+      }
+
+      @Override
+      public KeysetPage finish() {
+        String cursor = written == 0 ? null : encode(keyset.getKeyNames(), Arrays.asList(last));
+        return new KeysetPage(rows.finish(), cursor, more);
+      }
+    };
+  }
+
+  String encode(List<String> keyNames, List<String> after) {
+    ObjectNode token = objectMapper.createObjectNode();
+    ArrayNode keys = token.putArray("keys");
+    keyNames.forEach(keys::add);
+    ArrayNode values = token.putArray("after");
+    after.forEach(values::add);
+
+    return Base64.getUrlEncoder().withoutPadding()
+        .encodeToString(token.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  private List<String> textValues(JsonNode array) {
+    if (array == null || !array.isArray()) {
+      return null;
+    }
+
+    List<String> values = new ArrayList<>();
+    for (JsonNode value : array) {
+      if (value.isNull()) {
+        values.add(null);
+      } else if (value.isTextual()) {
+        values.add(value.asText());
+      } else {
+        return null;
+      }
+    }
+    return values;
+  }
+}
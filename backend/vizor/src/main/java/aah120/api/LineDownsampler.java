@@ -0,0 +1,239 @@
+package aah120.api;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.RawValue;
+
+// Largest-Triangle-Three-Buckets over a weak line query (series, x, y), done in one pass as the rows arrive:
+// every series keeps its first and last point and one point per bucket in between, the one spanning the
+// largest triangle with the point kept before it and the average of the next bucket
+@Component
+public class LineDownsampler {
+
+  private static final String SERIES_ROWS = "__vizor_series_rows";
+
+  private final ObjectMapper objectMapper;
+  private final JsonRowSerializer rowSerializer;
+
+  public LineDownsampler(ObjectMapper objectMapper, JsonRowSerializer rowSerializer) {
+    this.objectMapper = objectMapper;
+    this.rowSerializer = rowSerializer;
+  }
+
+  // orders the rows by series and x and counts each series up front, which fixes where its buckets fall
+  public String wrap(String sql, String seriesColumn) {
+    String inner = sql.endsWith(";") ? sql.substring(0, sql.length() - 1) : sql;
+    return "SELECT line.*, COUNT(*) OVER (PARTITION BY line." + seriesColumn + ") AS " + SERIES_ROWS + " FROM ("
+        + inner + ") line ORDER BY 1, 2;";
+  }
+
+  public ResourceGovernor.RowSinkFactory<RawValue> sink(int points) {
+    return metaData -> open(metaData, points);
+  }
+
+  private ResourceGovernor.RowSink<RawValue> open(ResultSetMetaData metaData, int points) throws SQLException {
+
+    int seriesRowsColumn = metaData.getColumnCount();
+    int xColumn = 2;
+    int yColumn = seriesRowsColumn - 1;
+    int xType = metaData.getColumnType(xColumn);
+    int yType = metaData.getColumnType(yColumn);
+
+    JsonRowSerializer.RowWriter writer = rowSerializer.compile(metaData, seriesRowsColumn - 1);
+    ByteArrayBuilder scratch = new ByteArrayBuilder();
+    ByteArrayBuilder out = new ByteArrayBuilder();
+
+    try {
+      JsonGenerator generator = objectMapper.getFactory().createGenerator(scratch);
+      generator.setRootValueSeparator(null);
+      out.write('[');
+
+      return new ResourceGovernor.RowSink<>() {
+
+        private Series series;
+        private boolean first = true;
+        private long keptPoints;
+
+        @Override
+        public long add(ResultSet resultSet) throws SQLException {
+          if (series == null || series.isComplete()) {
+            series = new Series(resultSet.getLong(seriesRowsColumn), points);
+          }
+
+          Point point = new Point(value(resultSet, xColumn, xType), value(resultSet, yColumn, yType),
+              capture(resultSet));
+
+          List<Point> kept = series.add(point);
+          keptPoints += kept.size();
+          long bytes = 0;
+          for (Point p : kept) {
+            if (!first) {
+              out.write(',');
+            }
+            out.write(p.json);
+            first = false;
+            bytes += p.json.length;
+          }
+          return bytes;
+        }
+
+        @Override
+        public long kept(long read) {
+          return keptPoints;
+        }
+
+        @Override
+        public RawValue finish() {
+          out.write(']');
+          return new RawValue(new String(out.toByteArray(), StandardCharsets.UTF_8));
+        }
+
+        private byte[] capture(ResultSet resultSet) throws SQLException {
+          try {
+            writer.write(resultSet, generator);
+            generator.flush();
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+          byte[] json = scratch.toByteArray();
+          scratch.reset();
+          return json;
+        }
+      };
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // epoch milliseconds for temporal values, so the triangle areas follow the real spacing of the points
+  private static double value(ResultSet resultSet, int column, int sqlType) throws SQLException {
+    switch (sqlType) {
+      case Types.DATE:
+      case Types.TIMESTAMP:
+      case Types.TIMESTAMP_WITH_TIMEZONE:
+        return resultSet.getTimestamp(column).getTime();
+      case Types.TIME:
+      case Types.TIME_WITH_TIMEZONE:
+        return resultSet.getTime(column).getTime();
+      default:
+        return resultSet.getDouble(column);
+    }
+  }
+
+  static class Point {
+
+    private final double x;
+    private final double y;
+    private final byte[] json;
+
+    Point(double x, double y, byte[] json) {
+      this.x = x;
+      this.y = y;
+      this.json = json;
+    }
+  }
+
+  // one series' pass: the bucket waiting to be chosen from, and the bucket after it still being read
+  static class Series {
+
+    private final long rows;
+    private final int points;
+
+    private long read;
+    private Point lastKept;
+    private int bucket;
+    private long bucketEnd;
+    private List<Point> waiting = new ArrayList<>();
+    private List<Point> reading = new ArrayList<>();
+
+    Series(long rows, int points) {
+      this.rows = rows;
+      this.points = points;
+      this.bucketEnd = bucketEnd(0);
+    }
+
+    boolean isComplete() {
+      return read == rows;
+    }
+
+    // the points that can be written now that this one has been read
+    List<Point> add(Point point) {
+      long index = read++;
+
+      if (rows <= points) {
+        return List.of(point);
+      }
+      if (index == 0) {
+        lastKept = point;
+        return List.of(point);
+      }
+
+      List<Point> kept = new ArrayList<>();
+      if (index == rows - 1) {
+        choose(kept);
+        reading = List.of(point);
+        choose(kept);
+        kept.add(point);
+        return kept;
+      }
+
+      while (index >= bucketEnd) {
+        choose(kept);
+        bucket++;
+        bucketEnd = bucketEnd(bucket);
+      }
+      reading.add(point);
+      return kept;
+    }
+
+    // the bucket being read is complete, so the one waiting can be chosen from against its average
+    private void choose(List<Point> kept) {
+      if (!waiting.isEmpty() && !reading.isEmpty()) {
+        double avgX = 0;
+        double avgY = 0;
+        for (Point p : reading) {
+          avgX += p.x;
+          avgY += p.y;
+        }
+        avgX /= reading.size();
+        avgY /= reading.size();
+
+        Point best = null;
+        double bestArea = -1;
+        for (Point p : waiting) {
+          double area = Math.abs((lastKept.x - avgX) * (p.y - lastKept.y)
+              - (lastKept.x - p.x) * (avgY - lastKept.y));
+          if (area > bestArea) {
+            bestArea = area;
+            best = p;
+          }
+        }
+
+        kept.add(best);
+        lastKept = best;
+      }
+
+      waiting = reading;
+      reading = new ArrayList<>();
+    }
+
+    // rows 1 .. rows - 2 are split into points - 2 buckets; integer arithmetic so the last one ends exactly
+    // before the last row
+    long bucketEnd(int bucket) {
+      return (bucket + 1) * (rows - 2) / (points - 2) + 1;
+    }
+  }
+}
@@ -3,18 +3,35 @@ package aah120.api;
 import java.sql.SQLException;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.fasterxml.jackson.databind.util.RawValue;
+
+import aah120.dto.CacheStats;
+import aah120.dto.ColumnarData;
 import aah120.dto.DatabaseDetails;
 import aah120.dto.DFRequest;
 import aah120.dto.DFResponse;
+import aah120.dto.GovernorStats;
+import aah120.dto.JobStatus;
+import aah120.dto.PoolStats;
 import aah120.dto.TableMetadata;
 import aah120.dto.VFRequest;
 import aah120.dto.VFResponse;
@@ -23,10 +40,19 @@ import aah120.dto.VFVisSelectRequest;
 import org.springframework.web.bind.annotation.GetMapping;
 
 @RestController
-@CrossOrigin(origins = "https://vizer-app.netlify.app")
+@CrossOrigin(origins = "https://vizer-app.netlify.app", exposedHeaders = { "X-Vizor-Session", "X-Vizor-Truncated",
+		"X-Vizor-Next-Cursor", "X-Vizor-Binned" })
 @RequestMapping("/api/v1")
 public class MainController {
 
+	private static final String NDJSON = "application/x-ndjson";
+	private static final String COLUMNAR_JSON = "application/vnd.vizor.columnar+json";
+	private static final String BINARY = "application/vnd.vizor.binary";
+	private static final String SESSION = "X-Vizor-Session";
+	private static final String TRUNCATED = "X-Vizor-Truncated";
+	private static final String NEXT_CURSOR = "X-Vizor-Next-Cursor";
+	private static final String BINNED = "X-Vizor-Binned";
+
 	private final DatabaseService databaseService;
 
 	public MainController(DatabaseService databaseService) {
@@ -37,8 +63,11 @@ public class MainController {
 	public ResponseEntity<String> connectToDatabase(@RequestBody DatabaseDetails databaseDetails) {
 
 		try {
-			databaseService.setConnectionDetails(databaseDetails);
-			return ResponseEntity.ok("{\"message\": \"Received database details successfully\"}");
+			String session = databaseService.setConnectionDetails(databaseDetails);
+			return ResponseEntity.ok()
+					.header(SESSION, session)
+					.body("{\"message\": \"Received database details successfully\", \"session\": \"" + session
+							+ "\"}");
 		} catch (Exception e) {
 			e.printStackTrace();
 			return ResponseEntity.internalServerError().body("{\"message\": \"Failed to connect to the database\"}");
@@ -46,9 +75,10 @@ public class MainController {
 	}
 
 	@GetMapping("tables")
-	public ResponseEntity<List<TableMetadata>> getTables() {
+	public ResponseEntity<List<TableMetadata>> getTables(
+			@RequestHeader(SESSION) String session) {
 		try {
-			List<TableMetadata> tables = databaseService.fetchTableMetadata();
+			List<TableMetadata> tables = databaseService.fetchTableMetadata(session);
 			return ResponseEntity.ok(tables);
 		} catch (SQLException e) {
 			e.printStackTrace();
@@ -56,31 +86,250 @@ public class MainController {
 		}
 	}
 
+	@GetMapping("cache-stats")
+	public ResponseEntity<CacheStats> getCacheStats(
+			@RequestHeader(SESSION) String session) {
+		return ResponseEntity.ok(databaseService.getCacheStats(session));
+	}
+
+	@GetMapping("governor-stats")
+	public ResponseEntity<List<GovernorStats>> getGovernorStats(
+			@RequestHeader(SESSION) String session) {
+		return ResponseEntity.ok(databaseService.getGovernorStats(session));
+	}
+
+	@GetMapping("pool-stats")
+	public ResponseEntity<List<PoolStats>> getPoolStats(
+			@RequestHeader(SESSION) String session) {
+		return ResponseEntity.ok(databaseService.getPoolStats(session));
+	}
+
 	@PostMapping("df-visualise")
-	public ResponseEntity<DFResponse> getVisualisations(@RequestBody DFRequest request) throws SQLException {
-		DFResponse response = databaseService.dfRecommendVisualisations(request);
+	public ResponseEntity<DFResponse> getVisualisations(@RequestBody DFRequest request,
+			@RequestParam(value = "preview", required = false, defaultValue = "false") boolean preview,
+			@RequestHeader(SESSION) String session) throws SQLException {
+		DFResponse response = databaseService.dfRecommendVisualisations(session, request, preview);
 
 		return ResponseEntity.ok(response);
 	}
 
+	@PostMapping(value = "df-visualise", produces = COLUMNAR_JSON)
+	public ResponseEntity<DFResponse> getColumnarVisualisations(@RequestBody DFRequest request,
+			@RequestParam(value = "preview", required = false, defaultValue = "false") boolean preview,
+			@RequestHeader(SESSION) String session) throws SQLException {
+		DFResponse response = databaseService.dfRecommendColumnar(session, request, preview);
+
+		return ResponseEntity.ok().contentType(MediaType.parseMediaType(COLUMNAR_JSON)).body(response);
+	}
+
+	@PostMapping(value = "df-visualise", produces = { NDJSON, BINARY })
+	public ResponseEntity<StreamingResponseBody> streamVisualisations(@RequestBody DFRequest request,
+			@RequestHeader(HttpHeaders.ACCEPT) String accept,
+			@RequestParam(value = "preview", required = false, defaultValue = "false") boolean preview,
+			@RequestHeader(SESSION) String session) throws SQLException {
+		StreamFormat format = streamFormat(accept);
+		StreamingResponseBody response = databaseService.dfStreamVisualisations(session, request, format, preview);
+
+		return ResponseEntity.ok().contentType(MediaType.parseMediaType(format.getMediaType())).body(response);
+	}
+
 	@PostMapping("vf-generate")
-	public ResponseEntity<VFResponse> getColumnOptions(@RequestBody VFRequest request) {
-		VFResponse response = databaseService.vfGenerateOptions(request);
+	public ResponseEntity<VFResponse> getColumnOptions(@RequestBody VFRequest request,
+			@RequestHeader(SESSION) String session) {
+		VFResponse response = databaseService.vfGenerateOptions(session, request);
 
 		return ResponseEntity.ok(response);
 	}
 
+	// paged=true or a cursor reads one page in key order, limit being the page size; the cursor for the next
+	// page comes back in a header until the last page. Otherwise points caps each series of a line chart, and
+	// a large scatter or bubble chart comes back as grid cells, with the grid size in a header. top keeps the
+	// top keys of a bar, word-cloud, one-many, sankey or chord chart and sums the rest into an "Other" row
 	@PostMapping("vf-execute")
-	public ResponseEntity<List<Map<String, Object>>> executeQuery(@RequestBody DFRequest request) {
-		List<Map<String, Object>> response = databaseService.vfExecuteQuery(request);
+	public ResponseEntity<RawValue> executeQuery(@RequestBody DFRequest request,
+			@RequestParam(value = "paged", required = false, defaultValue = "false") boolean paged,
+			@RequestParam(value = "cursor", required = false) String cursor,
+			@RequestParam(value = "points", required = false) Integer points,
+			@RequestParam(value = "top", required = false) Integer top,
+			@RequestHeader(SESSION) String session) {
+		if (!paged && cursor == null) {
+			GovernedResult<ChartRows> response = databaseService.vfExecuteQuery(session, request, points, top);
 
-		return ResponseEntity.ok(response);
+			return chartRows(governed(ResponseEntity.ok(), response), response.getData());
+		}
+
+		GovernedResult<KeysetPage> response = databaseService.vfExecutePage(session, request, cursor);
+		ResponseEntity.BodyBuilder builder = governed(ResponseEntity.ok(), response);
+		if (response.getData().getNextCursor() != null) {
+			builder.header(NEXT_CURSOR, response.getData().getNextCursor());
+		}
+
+		return builder.body(response.getData().getRows());
+	}
+
+	// a zoomed line or scatter chart, read only inside the given ranges and at about pixels points
+	@PostMapping("vf-execute/viewport")
+	public ResponseEntity<RawValue> executeViewport(@RequestBody DFRequest request,
+			@RequestParam(value = "xMin", required = false) String xMin,
+			@RequestParam(value = "xMax", required = false) String xMax,
+			@RequestParam(value = "yMin", required = false) String yMin,
+			@RequestParam(value = "yMax", required = false) String yMax,
+			@RequestParam(value = "pixels") int pixels,
+			@RequestHeader(SESSION) String session) {
+		Viewport viewport = new Viewport(xMin, xMax, yMin, yMax);
+		GovernedResult<ChartRows> response = databaseService.vfExecuteViewport(session, request, viewport, pixels);
+
+		return chartRows(governed(ResponseEntity.ok(), response), response.getData());
+	}
+
+	// one NDJSON line per chart, in the order they finish, each carrying its index in the request
+	@PostMapping(value = "vf-execute/batch", produces = NDJSON)
+	public ResponseEntity<StreamingResponseBody> executeBatch(@RequestBody List<DFRequest> requests,
+			@RequestHeader(SESSION) String session) {
+		StreamingResponseBody response = databaseService.vfExecuteBatch(session, requests);
+
+		return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON)).body(response);
+	}
+
+	@PostMapping(value = "vf-execute", produces = COLUMNAR_JSON)
+	public ResponseEntity<ColumnarData> executeColumnarQuery(@RequestBody DFRequest request,
+			@RequestHeader(SESSION) String session) {
+		GovernedResult<ColumnarData> response = databaseService.vfExecuteColumnar(session, request);
+
+		return governed(ResponseEntity.ok(), response).contentType(MediaType.parseMediaType(COLUMNAR_JSON))
+				.body(response.getData());
+	}
+
+	@PostMapping(value = "vf-execute", produces = { NDJSON, BINARY })
+	public ResponseEntity<StreamingResponseBody> streamQuery(@RequestBody DFRequest request,
+			@RequestHeader(HttpHeaders.ACCEPT) String accept,
+			@RequestHeader(SESSION) String session) {
+		StreamFormat format = streamFormat(accept);
+		StreamingResponseBody response = databaseService.vfStreamQuery(session, request, format);
+
+		return ResponseEntity.ok().contentType(MediaType.parseMediaType(format.getMediaType())).body(response);
+	}
+
+	@PostMapping("jobs/df-visualise")
+	public ResponseEntity<JobStatus> submitVisualisationJob(@RequestBody DFRequest request,
+			@RequestParam(value = "timeoutMs", required = false) Long timeoutMs,
+			@RequestHeader(SESSION) String session) throws SQLException {
+		try {
+			JobStatus response = databaseService.submitVisualisationJob(session, request, timeoutMs);
+			return ResponseEntity.accepted().body(response);
+		} catch (RejectedExecutionException e) {
+			return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+		}
+	}
+
+	@PostMapping("jobs/vf-execute")
+	public ResponseEntity<JobStatus> submitExecutionJob(@RequestBody DFRequest request,
+			@RequestParam(value = "timeoutMs", required = false) Long timeoutMs,
+			@RequestHeader(SESSION) String session) {
+		try {
+			JobStatus response = databaseService.submitExecutionJob(session, request, timeoutMs);
+			return ResponseEntity.accepted().body(response);
+		} catch (RejectedExecutionException e) {
+			return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+		}
+	}
+
+	@GetMapping("jobs/{id}")
+	public ResponseEntity<JobStatus> getJob(@PathVariable String id,
+			@RequestHeader(SESSION) String session) {
+		QueryJob job = databaseService.getJob(session, id);
+		if (job == null) {
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		}
+
+		return ResponseEntity.ok(job.status());
+	}
+
+	@GetMapping(value = "jobs/{id}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public ResponseEntity<SseEmitter> subscribeToJob(@PathVariable String id,
+			@RequestHeader(SESSION) String session) {
+		QueryJob job = databaseService.getJob(session, id);
+		if (job == null) {
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		}
+
+		return ResponseEntity.ok(databaseService.subscribeToJob(job));
+	}
+
+	// the bare vf-execute bodies have nowhere else to say the result was cut short
+	private ResponseEntity.BodyBuilder governed(ResponseEntity.BodyBuilder builder, GovernedResult<?> result) {
+		if (result.getTruncated() != null) {
+			builder.header(TRUNCATED, result.getTruncated());
+		}
+		return builder;
+	}
+
+	private ResponseEntity<RawValue> chartRows(ResponseEntity.BodyBuilder builder, ChartRows rows) {
+		if (rows.getBins() != null) {
+			builder.header(BINNED, rows.getBins().toString());
+		}
+		return builder.body(rows.getRows());
+	}
+
+	@ExceptionHandler(QueryBudgetExceededException.class)
+	public ResponseEntity<Map<String, String>> queryOverBudget(QueryBudgetExceededException e) {
+		return ResponseEntity.unprocessableEntity().body(Map.of("message", e.getMessage()));
+	}
+
+	@ExceptionHandler(SessionRequiredException.class)
+	public ResponseEntity<Map<String, String>> sessionRequired(SessionRequiredException e) {
+		return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("message", e.getMessage()));
+	}
+
+	@ExceptionHandler(InvalidRequestException.class)
+	public ResponseEntity<Map<String, String>> invalidRequest(InvalidRequestException e) {
+		return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+	}
+
+	// 202 with the status while the job runs, 409 with the status if it ended without a result
+	@GetMapping("jobs/{id}/result")
+	public ResponseEntity<Object> getJobResult(@PathVariable String id,
+			@RequestHeader(SESSION) String session) {
+		QueryJob job = databaseService.getJob(session, id);
+		if (job == null) {
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		}
+
+		if (job.getState() == QueryJob.State.SUCCEEDED) {
+			ResponseEntity.BodyBuilder builder = ResponseEntity.ok();
+			if (job.getTruncated() != null) {
+				builder.header(TRUNCATED, job.getTruncated());
+			}
+			return builder.body(job.getResult());
+		} else if (!job.getState().isDone()) {
+			return ResponseEntity.accepted().body(job.status());
+		} else {
+			return ResponseEntity.status(HttpStatus.CONFLICT).body(job.status());
+		}
+	}
+
+	@DeleteMapping("jobs/{id}")
+	public ResponseEntity<JobStatus> cancelJob(@PathVariable String id,
+			@RequestHeader(SESSION) String session) {
+		QueryJob job = databaseService.getJob(session, id);
+		if (job == null) {
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		}
+
+		databaseService.cancelJob(job);
+		return ResponseEntity.ok(job.status());
 	}
 
 	@PostMapping("vf-select")
-	public ResponseEntity<List<String>> selectVis(@RequestBody VFVisSelectRequest request) throws SQLException {
-		List<String> response = databaseService.vfSelectVis(request);
+	public ResponseEntity<List<String>> selectVis(@RequestBody VFVisSelectRequest request,
+			@RequestHeader(SESSION) String session) throws SQLException {
+		List<String> response = databaseService.vfSelectVis(session, request);
 
 		return ResponseEntity.ok(response);
 	}
+
+	// the mapping only matches when one of the two was asked for; binary wins if both were
+	private StreamFormat streamFormat(String accept) {
+		return accept.contains(BINARY) ? StreamFormat.BINARY : StreamFormat.NDJSON;
+	}
 }
@@ -0,0 +1,25 @@
+package aah120.api;
+
+// everything derived from one metadata snapshot; never modified after construction, only replaced as a whole
+public class MetadataContext {
+
+  private final MetadataSnapshot snapshot;
+  private final ClassificationIndex classificationIndex;
+
+  public MetadataContext(MetadataSnapshot snapshot, ClassificationIndex classificationIndex) {
+    this.snapshot = snapshot;
+    this.classificationIndex = classificationIndex;
+  }
+
+  public MetadataSnapshot getSnapshot() {
+    return snapshot;
+  }
+
+  public ClassificationIndex getClassificationIndex() {
+    return classificationIndex;
+  }
+
+  public long getVersion() {
+    return snapshot.getVersion();
+  }
+}
@@ -0,0 +1,259 @@
+package aah120.api;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.stereotype.Component;
+
+import aah120.dto.Column;
+import aah120.dto.ForeignKey;
+import aah120.dto.TableMetadata;
+
+@Component
+public class MetadataIntrospector {
+
+  private static final String SCHEMA = "public";
+
+  // one row per column (or a single null-column row for tables without columns), in attnum order
+  private static final String PG_COLUMNS_QUERY = "SELECT c.relname, a.attname, t.typname, "
+      + "pg_get_expr(d.adbin, d.adrelid) LIKE '%nextval(%' AS serial "
+      + "FROM pg_catalog.pg_class c "
+      + "JOIN pg_catalog.pg_namespace n ON n.oid = c.relnamespace "
+      + "LEFT JOIN pg_catalog.pg_attribute a ON a.attrelid = c.oid AND a.attnum > 0 AND NOT a.attisdropped "
+      + "LEFT JOIN pg_catalog.pg_type t ON t.oid = a.atttypid "
+      + "LEFT JOIN pg_catalog.pg_attrdef d ON d.adrelid = c.oid AND d.adnum = a.attnum "
+      + "WHERE n.nspname = ? AND c.relkind = 'r' "
+      + "ORDER BY c.relname, a.attnum";
+
+  private static final String PG_PRIMARY_KEYS_QUERY = "SELECT c.relname, a.attname "
+      + "FROM pg_catalog.pg_constraint con "
+      + "JOIN pg_catalog.pg_class c ON c.oid = con.conrelid "
+      + "JOIN pg_catalog.pg_namespace n ON n.oid = c.relnamespace "
+      + "CROSS JOIN LATERAL unnest(con.conkey) WITH ORDINALITY AS k(attnum, pos) "
+      + "JOIN pg_catalog.pg_attribute a ON a.attrelid = c.oid AND a.attnum = k.attnum "
+      + "WHERE n.nspname = ? AND c.relkind = 'r' AND con.contype = 'p' "
+      + "ORDER BY c.relname, k.pos";
+
+  private static final String PG_FOREIGN_KEYS_QUERY = "SELECT pc.relname AS parent_table, pa.attname AS parent_column, "
+      + "cc.relname AS child_table, ca.attname AS child_column, con.conname AS constraint_name "
+      + "FROM pg_catalog.pg_constraint con "
+      + "JOIN pg_catalog.pg_class cc ON cc.oid = con.conrelid "
+      + "JOIN pg_catalog.pg_namespace n ON n.oid = cc.relnamespace "
+      + "JOIN pg_catalog.pg_class pc ON pc.oid = con.confrelid "
+      + "JOIN pg_catalog.pg_namespace pn ON pn.oid = pc.relnamespace "
+      + "CROSS JOIN LATERAL unnest(con.conkey, con.confkey) WITH ORDINALITY AS k(child_attnum, parent_attnum, pos) "
+      + "JOIN pg_catalog.pg_attribute ca ON ca.attrelid = cc.oid AND ca.attnum = k.child_attnum "
+      + "JOIN pg_catalog.pg_attribute pa ON pa.attrelid = pc.oid AND pa.attnum = k.parent_attnum "
+      + "WHERE n.nspname = ? AND cc.relkind = 'r' AND con.contype = 'f' "
+      + "ORDER BY cc.relname, pn.nspname, pc.relname, con.conname, k.pos";
+
+  // changes whenever a table, column or constraint in the schema is created, altered, rewritten or dropped
+  private static final String PG_FINGERPRINT_QUERY = "SELECT md5(concat_ws('/', "
+      + "(SELECT string_agg(c.oid::text || ':' || c.relfilenode::text || ':' || c.xmin::text, ',' ORDER BY c.oid) "
+      + "FROM pg_catalog.pg_class c JOIN pg_catalog.pg_namespace n ON n.oid = c.relnamespace "
+      + "WHERE n.nspname = ? AND c.relkind = 'r'), "
+      + "(SELECT string_agg(a.attrelid::text || ':' || a.attnum::text || ':' || a.xmin::text, ',' "
+      + "ORDER BY a.attrelid, a.attnum) "
+      + "FROM pg_catalog.pg_attribute a JOIN pg_catalog.pg_class c ON c.oid = a.attrelid "
+      + "JOIN pg_catalog.pg_namespace n ON n.oid = c.relnamespace "
+      + "WHERE n.nspname = ? AND c.relkind = 'r' AND a.attnum > 0), "
+      + "(SELECT string_agg(con.oid::text || ':' || con.xmin::text, ',' ORDER BY con.oid) "
+      + "FROM pg_catalog.pg_constraint con JOIN pg_catalog.pg_class c ON c.oid = con.conrelid "
+      + "JOIN pg_catalog.pg_namespace n ON n.oid = c.relnamespace "
+      + "WHERE n.nspname = ? AND c.relkind = 'r')))";
+
+  // planner row estimates; tables that have never been analysed report -1 and are left out
+  private static final String PG_ROW_ESTIMATES_QUERY = "SELECT c.relname, c.reltuples::int8 "
+      + "FROM pg_catalog.pg_class c JOIN pg_catalog.pg_namespace n ON n.oid = c.relnamespace "
+      + "WHERE n.nspname = ? AND c.relkind = 'r' AND c.relname = ANY (?) AND c.reltuples >= 0";
+
+  public String fingerprint(Connection connection) throws SQLException {
+    if (!"PostgreSQL".equals(connection.getMetaData().getDatabaseProductName())) {
+      return null;
+    }
+
+    try (PreparedStatement statement = connection.prepareStatement(PG_FINGERPRINT_QUERY)) {
+      statement.setString(1, SCHEMA);
+      statement.setString(2, SCHEMA);
+      statement.setString(3, SCHEMA);
+      try (ResultSet rs = statement.executeQuery()) {
+        rs.next();
+        return rs.getString(1);
+      }
+    }
+  }
+
+  // empty for databases other than PostgreSQL
+  public Map<String, Long> estimateRows(Connection connection, List<String> tableNames) throws SQLException {
+    if (!"PostgreSQL".equals(connection.getMetaData().getDatabaseProductName())) {
+      return Map.of();
+    }
+
+    Map<String, Long> estimates = new HashMap<>();
+
+    try (PreparedStatement statement = connection.prepareStatement(PG_ROW_ESTIMATES_QUERY)) {
+      statement.setString(1, SCHEMA);
+      statement.setArray(2, connection.createArrayOf("text", tableNames.toArray()));
+      try (ResultSet rs = statement.executeQuery()) {
+        while (rs.next()) {
+          estimates.put(rs.getString(1), rs.getLong(2));
+        }
+      }
+    }
+
+    return estimates;
+  }
+
+  public List<TableMetadata> introspect(Connection connection) throws SQLException {
+    DatabaseMetaData metaData = connection.getMetaData();
+
+    if ("PostgreSQL".equals(metaData.getDatabaseProductName())) {
+      return introspectPostgres(connection);
+    }
+
+    return introspectJdbc(metaData);
+  }
+
+  private List<TableMetadata> introspectPostgres(Connection connection) throws SQLException {
+
+    Map<String, List<String[]>> columnsByTable = new LinkedHashMap<>();
+    Map<String, List<String>> primaryKeysByTable = new HashMap<>();
+    Map<String, List<ForeignKey>> foreignKeysByTable = new HashMap<>();
+
+    try (PreparedStatement statement = connection.prepareStatement(PG_COLUMNS_QUERY)) {
+      statement.setString(1, SCHEMA);
+      try (ResultSet rs = statement.executeQuery()) {
+        while (rs.next()) {
+          List<String[]> columns = columnsByTable.computeIfAbsent(rs.getString(1), t -> new ArrayList<>());
+          String colName = rs.getString(2);
+          if (colName != null) {
+            columns.add(new String[] { colName, jdbcTypeName(rs.getString(3), rs.getBoolean(4)) });
+          }
+        }
+      }
+    }
+
+    try (PreparedStatement statement = connection.prepareStatement(PG_PRIMARY_KEYS_QUERY)) {
+      statement.setString(1, SCHEMA);
+      try (ResultSet rs = statement.executeQuery()) {
+        while (rs.next()) {
+          primaryKeysByTable.computeIfAbsent(rs.getString(1), t -> new ArrayList<>()).add(rs.getString(2));
+        }
+      }
+    }
+
+    try (PreparedStatement statement = connection.prepareStatement(PG_FOREIGN_KEYS_QUERY)) {
+      statement.setString(1, SCHEMA);
+      try (ResultSet rs = statement.executeQuery()) {
+        while (rs.next()) {
+          String childTable = rs.getString("child_table");
+          foreignKeysByTable.computeIfAbsent(childTable, t -> new ArrayList<>()).add(new ForeignKey(
+              rs.getString("parent_table"), rs.getString("parent_column"), childTable, rs.getString("child_column"),
+              rs.getString("constraint_name")));
+        }
+      }
+    }
+
+    List<TableMetadata> tables = new ArrayList<>();
+
+    for (Map.Entry<String, List<String[]>> entry : columnsByTable.entrySet()) {
+      String tableName = entry.getKey();
+      List<String> primaryKeys = primaryKeysByTable.getOrDefault(tableName, new ArrayList<>());
+      List<ForeignKey> foreignKeys = foreignKeysByTable.getOrDefault(tableName, new ArrayList<>());
+
+      List<Column> columns = new ArrayList<>();
+      for (String[] col : entry.getValue()) {
+        columns.add(new Column(col[0], col[1], tableName));
+      }
+
+      tables.add(buildTable(tableName, columns, primaryKeys, foreignKeys));
+    }
+
+    return tables;
+  }
+
+  private List<TableMetadata> introspectJdbc(DatabaseMetaData metaData) throws SQLException {
+
+    ResultSet tablesRs = metaData.getTables(null, SCHEMA, "%", new String[] { "TABLE" });
+    List<TableMetadata> tables = new ArrayList<>();
+
+    while (tablesRs.next()) {
+      String tableName = tablesRs.getString("TABLE_NAME");
+
+      ResultSet primaryKeysRs = metaData.getPrimaryKeys(null, SCHEMA, tableName);
+      List<String> primaryKeys = new ArrayList<>();
+      while (primaryKeysRs.next()) {
+        primaryKeys.add(primaryKeysRs.getString("COLUMN_NAME"));
+      }
+
+      ResultSet foreignKeysRs = metaData.getImportedKeys(null, SCHEMA, tableName);
+      List<ForeignKey> foreignKeys = new ArrayList<>();
+      while (foreignKeysRs.next()) {
+        String parentTable = foreignKeysRs.getString("PKTABLE_NAME");
+        String parentColumn = foreignKeysRs.getString("PKCOLUMN_NAME");
+        String childTable = foreignKeysRs.getString("FKTABLE_NAME");
+        String childColumn = foreignKeysRs.getString("FKCOLUMN_NAME");
+        String constraintName = foreignKeysRs.getString("FK_NAME");
+        foreignKeys.add(new ForeignKey(parentTable, parentColumn, childTable, childColumn, constraintName));
+      }
+
+      ResultSet columnsRs = metaData.getColumns(null, SCHEMA, tableName, "%");
+      List<Column> columns = new ArrayList<>();
+      while (columnsRs.next()) {
+        columns.add(new Column(columnsRs.getString("COLUMN_NAME"), columnsRs.getString("TYPE_NAME"), tableName));
+      }
+
+      tables.add(buildTable(tableName, columns, primaryKeys, foreignKeys));
+    }
+
+    return tables;
+  }
+
+  private TableMetadata buildTable(String tableName, List<Column> columns, List<String> primaryKeys,
+      List<ForeignKey> foreignKeys) {
+
+    Set<String> pkNames = new HashSet<>(primaryKeys);
+    Set<String> fkNames = new HashSet<>();
+    for (ForeignKey fk : foreignKeys) {
+      fkNames.add(fk.getChildColumn());
+    }
+
+    for (Column col : columns) {
+      if (pkNames.contains(col.getName())) {
+        col.setPrimaryKey(true);
+      }
+
+      if (fkNames.contains(col.getName())) {
+        col.setForeignKey(true);
+      }
+    }
+
+    return new TableMetadata(tableName, columns, primaryKeys, foreignKeys);
+  }
+
+  // mirrors the TYPE_NAME reported by pgjdbc's getColumns, which renames sequence-backed integers
+  private String jdbcTypeName(String typeName, boolean serial) {
+    if (serial) {
+      switch (typeName) {
+        case "int2":
+          return "smallserial";
+        case "int4":
+          return "serial";
+        case "int8":
+          return "bigserial";
+      }
+    }
+
+    return typeName;
+  }
+}
@@ -0,0 +1,57 @@
+package aah120.api;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import aah120.dto.TableMetadata;
+
+public class MetadataSnapshot {
+
+  public static final MetadataSnapshot EMPTY = new MetadataSnapshot(null, 0, null, List.of());
+
+  private final String connectionKey;
+  private final long version;
+  private final String fingerprint;
+  private final List<TableMetadata> tables;
+  private final Map<String, TableMetadata> tablesByName;
+  private final ForeignKeyGraph foreignKeyGraph;
+
+  public MetadataSnapshot(String connectionKey, long version, String fingerprint, List<TableMetadata> tables) {
+    this.connectionKey = connectionKey;
+    this.version = version;
+    this.fingerprint = fingerprint;
+    this.tables = tables;
+    this.tablesByName = new HashMap<>();
+    for (TableMetadata table : tables) {
+      tablesByName.put(table.getTableName(), table);
+    }
+    this.foreignKeyGraph = new ForeignKeyGraph(tables);
+  }
+
+  public String getConnectionKey() {
+    return connectionKey;
+  }
+
+  // bumped every time the introspected metadata is replaced, persisted with the snapshot
+  public long getVersion() {
+    return version;
+  }
+
+  // catalog fingerprint at introspection time, null when the source cannot provide one
+  public String getFingerprint() {
+    return fingerprint;
+  }
+
+  public List<TableMetadata> getTables() {
+    return tables;
+  }
+
+  public TableMetadata getTable(String tableName) {
+    return tablesByName.get(tableName);
+  }
+
+  public ForeignKeyGraph getForeignKeyGraph() {
+    return foreignKeyGraph;
+  }
+}
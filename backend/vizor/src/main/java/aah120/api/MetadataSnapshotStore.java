@@ -0,0 +1,164 @@
+package aah120.api;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import aah120.dto.Column;
+import aah120.dto.ForeignKey;
+import aah120.dto.TableMetadata;
+
+@Component
+public class MetadataSnapshotStore {
+
+  private static final int MAGIC = 0x565a4d53; // "VZMS"
+  private static final int FORMAT_VERSION = 3;
+
+  private final Path directory;
+
+  public MetadataSnapshotStore(@Value("${vizor.metadata.snapshot-dir}") String directory) {
+    this.directory = Paths.get(directory);
+  }
+
+  public Optional<MetadataSnapshot> load(String connectionKey) {
+    Path file = fileFor(connectionKey);
+
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+        return Optional.empty();
+      }
+
+      long version = in.readLong();
+      String fingerprint = in.readBoolean() ? in.readUTF() : null;
+
+      int numTables = in.readInt();
+      List<TableMetadata> tables = new ArrayList<>(numTables);
+
+      for (int t = 0; t < numTables; t++) {
+        String tableName = in.readUTF();
+
+        int numColumns = in.readInt();
+        List<Column> columns = new ArrayList<>(numColumns);
+        for (int c = 0; c < numColumns; c++) {
+          Column col = new Column(in.readUTF(), in.readUTF(), tableName);
+          byte flags = in.readByte();
+          col.setPrimaryKey((flags & 1) != 0);
+          col.setForeignKey((flags & 2) != 0);
+          columns.add(col);
+        }
+
+        int numPks = in.readInt();
+        List<String> primaryKeys = new ArrayList<>(numPks);
+        for (int p = 0; p < numPks; p++) {
+          primaryKeys.add(in.readUTF());
+        }
+
+        int numFks = in.readInt();
+        List<ForeignKey> foreignKeys = new ArrayList<>(numFks);
+        for (int f = 0; f < numFks; f++) {
+          String parentTable = in.readUTF();
+          String parentColumn = in.readUTF();
+          String childColumn = in.readUTF();
+          String constraintName = in.readBoolean() ? in.readUTF() : null;
+          foreignKeys.add(new ForeignKey(parentTable, parentColumn, tableName, childColumn, constraintName));
+        }
+
+        tables.add(new TableMetadata(tableName, columns, primaryKeys, foreignKeys));
+      }
+
+      return Optional.of(new MetadataSnapshot(connectionKey, version, fingerprint, tables));
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    } catch (IOException e) {
+      // a corrupt or truncated snapshot is just a cache miss
+      return Optional.empty();
+    }
+  }
+
+  public void save(MetadataSnapshot snapshot) {
+    Path file = fileFor(snapshot.getConnectionKey());
+    Path tmp = null;
+
+    try {
+      Files.createDirectories(directory);
+      tmp = Files.createTempFile(directory, snapshot.getConnectionKey(), ".tmp");
+
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tmp))))) {
+
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeLong(snapshot.getVersion());
+        out.writeBoolean(snapshot.getFingerprint() != null);
+        if (snapshot.getFingerprint() != null) {
+          out.writeUTF(snapshot.getFingerprint());
+        }
+
+        out.writeInt(snapshot.getTables().size());
+
+        for (TableMetadata table : snapshot.getTables()) {
+          out.writeUTF(table.getTableName());
+
+          out.writeInt(table.getColumns().size());
+          for (Column col : table.getColumns()) {
+            out.writeUTF(col.getName());
+            out.writeUTF(col.getType());
+            out.writeByte((col.isPrimaryKey() ? 1 : 0) | (col.isForeignKey() ? 2 : 0));
+          }
+
+          out.writeInt(table.getPrimaryKeys().size());
+          for (String pk : table.getPrimaryKeys()) {
+            out.writeUTF(pk);
+          }
+
+          out.writeInt(table.getForeignKeys().size());
+          for (ForeignKey fk : table.getForeignKeys()) {
+            out.writeUTF(fk.getParentTable());
+            out.writeUTF(fk.getParentColumn());
+            out.writeUTF(fk.getChildColumn());
+            // the JDBC fallback can introspect a foreign key without a name
+            out.writeBoolean(fk.getConstraintName() != null);
+            if (fk.getConstraintName() != null) {
+              out.writeUTF(fk.getConstraintName());
+            }
+          }
+        }
+      }
+
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      // persisting is best effort, the in-memory snapshot is still valid
+      e.printStackTrace();
+    } finally {
+      // only left behind when the write or the move failed
+      if (tmp != null) {
+        try {
+          Files.deleteIfExists(tmp);
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+  }
+
+  private Path fileFor(String connectionKey) {
+    return directory.resolve(connectionKey + ".snapshot");
+  }
+}
@@ -0,0 +1,70 @@
+package aah120.api;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+@Component
+public class PreviewSampler {
+
+  private static final Set<String> METHODS = Set.of("SYSTEM", "BERNOULLI");
+
+  private final MetadataIntrospector introspector;
+  private final String method;
+  private final long minRows;
+  private final long targetRows;
+
+  public PreviewSampler(MetadataIntrospector introspector, @Value("${vizor.preview.method}") String method,
+      @Value("${vizor.preview.min-rows}") long minRows, @Value("${vizor.preview.target-rows}") long targetRows) {
+    if (!METHODS.contains(method)) {
+      throw new IllegalArgumentException("Unknown sampling method: " + method);
+    }
+    this.introspector = introspector;
+    this.method = method;
+    this.minRows = minRows;
+    this.targetRows = targetRows;
+  }
+
+  // samples the largest of the tables down to about target-rows, going by the planner's row estimates;
+  // null when none is estimated above min-rows, so the preview reads everything
+  public TableSample choose(Connection connection, List<String> tableNames) throws SQLException {
+
+    Map.Entry<String, Long> largest = largestTable(connection, tableNames);
+
+    if (largest == null || largest.getValue() < minRows) {
+      return null;
+    }
+
+    return new TableSample(largest.getKey(), method, Math.min(1.0, (double) targetRows / largest.getValue()));
+  }
+
+  // samples the largest of the tables at the given rate whatever its size; null when none has an estimate
+  public TableSample sample(Connection connection, List<String> tableNames, double rate) throws SQLException {
+
+    Map.Entry<String, Long> largest = largestTable(connection, tableNames);
+
+    if (largest == null) {
+      return null;
+    }
+
+    return new TableSample(largest.getKey(), method, Math.min(1.0, rate));
+  }
+
+  private Map.Entry<String, Long> largestTable(Connection connection, List<String> tableNames)
+      throws SQLException {
+
+    Map.Entry<String, Long> largest = null;
+    for (Map.Entry<String, Long> estimate : introspector.estimateRows(connection, tableNames).entrySet()) {
+      if (largest == null || estimate.getValue() > largest.getValue()) {
+        largest = estimate;
+      }
+    }
+
+    return largest;
+  }
+}
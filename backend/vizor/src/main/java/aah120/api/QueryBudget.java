@@ -0,0 +1,32 @@
+package aah120.api;
+
+public class QueryBudget {
+
+  private final double maxCost;
+  private final long maxRows;
+  private final boolean downgrade;
+
+  public QueryBudget(double maxCost, long maxRows, boolean downgrade) {
+    this.maxCost = maxCost;
+    this.maxRows = maxRows;
+    this.downgrade = downgrade;
+  }
+
+  public double getMaxCost() {
+    return maxCost;
+  }
+
+  public long getMaxRows() {
+    return maxRows;
+  }
+
+  // whether a query over budget may be sampled and limited instead of refused
+  public boolean isDowngrade() {
+    return downgrade;
+  }
+
+  // no estimate (not postgres, or EXPLAIN failed) counts as within budget
+  public boolean allows(CostEstimate estimate) {
+    return estimate == null || (estimate.getTotalCost() <= maxCost && estimate.getRows() <= maxRows);
+  }
+}
@@ -0,0 +1,12 @@
+package aah120.api;
+
+public class QueryBudgetExceededException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  public QueryBudgetExceededException(String endpoint, CostEstimate estimate, QueryBudget budget) {
+    super(String.format("Query is estimated at cost %.0f and %.0f rows, over the %s budget of cost %.0f "
+        + "and %d rows; add filters or a limit", estimate.getTotalCost(), estimate.getRows(), endpoint,
+        budget.getMaxCost(), budget.getMaxRows()));
+  }
+}
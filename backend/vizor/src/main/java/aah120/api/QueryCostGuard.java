@@ -0,0 +1,206 @@
+package aah120.api;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@Component
+public class QueryCostGuard {
+
+  public static final String DF_VISUALISE = "df-visualise";
+  public static final String VF_EXECUTE = "vf-execute";
+  public static final String JOBS = "jobs";
+
+  // sample scans are not costed exactly in proportion to the rate, so the downgrade is refined a few times
+  private static final int MAX_DOWNGRADE_ATTEMPTS = 4;
+  // costs that do not shrink with the sample (sorts, other tables) would otherwise leave it just over budget
+  private static final double TARGET_FRACTION = 0.8;
+
+  private final DatabaseConnectionManager connectionManager;
+  private final PreviewSampler previewSampler;
+  private final ObjectMapper objectMapper;
+  private final Map<String, QueryBudget> budgets;
+  private final double minSamplingRate;
+  private final int estimateCacheSize;
+
+  // by query shape: the sql, its row limit and its line points but not its filter values, so one EXPLAIN covers
+  // every filter value while a larger limit is planned again
+  private final LinkedHashMap<ResultCacheKey, Estimate> estimates = new LinkedHashMap<>(16, 0.75f, true);
+
+  public QueryCostGuard(DatabaseConnectionManager connectionManager, PreviewSampler previewSampler,
+      ObjectMapper objectMapper,
+      @Value("${vizor.guard.df-visualise.max-cost}") double dfMaxCost,
+      @Value("${vizor.guard.df-visualise.max-rows}") long dfMaxRows,
+      @Value("${vizor.guard.df-visualise.on-exceed}") String dfOnExceed,
+      @Value("${vizor.guard.vf-execute.max-cost}") double vfMaxCost,
+      @Value("${vizor.guard.vf-execute.max-rows}") long vfMaxRows,
+      @Value("${vizor.guard.jobs.max-cost}") double jobsMaxCost,
+      @Value("${vizor.guard.jobs.max-rows}") long jobsMaxRows,
+      @Value("${vizor.guard.min-sampling-rate}") double minSamplingRate,
+      @Value("${vizor.guard.estimate-cache-size}") int estimateCacheSize) {
+    if (!dfOnExceed.equals("downgrade") && !dfOnExceed.equals("reject")) {
+      throw new IllegalArgumentException("Unknown on-exceed action: " + dfOnExceed);
+    }
+    this.connectionManager = connectionManager;
+    this.previewSampler = previewSampler;
+    this.objectMapper = objectMapper;
+    this.budgets = Map.of(
+        DF_VISUALISE, new QueryBudget(dfMaxCost, dfMaxRows, dfOnExceed.equals("downgrade")),
+        VF_EXECUTE, new QueryBudget(vfMaxCost, vfMaxRows, false),
+        JOBS, new QueryBudget(jobsMaxCost, jobsMaxRows, false));
+    this.minSamplingRate = minSamplingRate;
+    this.estimateCacheSize = estimateCacheSize;
+  }
+
+  // throws QueryBudgetExceededException if the query is over the endpoint's budget
+  public void check(DatabaseSession session, long version, String endpoint, ChartQuery query) {
+    QueryBudget budget = budgets.get(endpoint);
+    CostEstimate estimate = estimate(session, version, query);
+
+    if (!budget.allows(estimate)) {
+      throw new QueryBudgetExceededException(endpoint, estimate, budget);
+    }
+  }
+
+  // plans the query and, if it is over budget and the endpoint allows it, samples the largest table at the rate
+  // that brings the cost down and then tightens the limit to the row budget; throws
+  // QueryBudgetExceededException when the query still does not fit
+  public GuardedQuery guard(DatabaseSession session, long version, String endpoint, List<String> tableNames,
+      TableSample sample, int limit, QueryPlanner planner) {
+
+    QueryBudget budget = budgets.get(endpoint);
+    ChartQuery query = planner.plan(sample, limit);
+    CostEstimate estimate = estimate(session, version, query);
+
+    if (budget.allows(estimate)) {
+      return new GuardedQuery(query, sample, null);
+    }
+
+    if (!budget.isDowngrade()) {
+      throw new QueryBudgetExceededException(endpoint, estimate, budget);
+    }
+
+    // a limit can change the plan and its cost, so the two are refined together
+    Integer rowLimit = null;
+    for (int i = 0; i < MAX_DOWNGRADE_ATTEMPTS && !budget.allows(estimate); i++) {
+      boolean changed = false;
+
+      if (estimate.getTotalCost() > budget.getMaxCost()) {
+        double rate = (sample == null ? 1.0 : sample.getRate()) * TARGET_FRACTION * budget.getMaxCost()
+            / estimate.getTotalCost();
+        TableSample smaller = rate < minSamplingRate ? null : sampleLargest(session, tableNames, rate);
+        if (smaller != null) {
+          sample = smaller;
+          changed = true;
+        }
+      }
+
+      if (estimate.getRows() > budget.getMaxRows() && rowLimit == null) {
+        rowLimit = (int) Math.min(budget.getMaxRows(), Integer.MAX_VALUE);
+        changed = true;
+      }
+
+      if (!changed) {
+        break;
+      }
+
+      query = planner.plan(sample, rowLimit == null ? limit : rowLimit);
+      estimate = estimate(session, version, query);
+    }
+
+    if (!budget.allows(estimate)) {
+      throw new QueryBudgetExceededException(endpoint, estimate, budget);
+    }
+
+    return new GuardedQuery(query, sample, rowLimit);
+  }
+
+  // null when there is no estimate to go by; a failed EXPLAIN is left for the query itself to report. A
+  // downsampled line returns at most its points for each series, however many rows it reads
+  public CostEstimate estimate(DatabaseSession session, long version, ChartQuery query) {
+
+    Integer points = query.getLinePoints();
+    String kind = points == null ? "explain" : "explain/line/" + points;
+    ResultCacheKey key = new ResultCacheKey(session.getConnectionKey(), kind, query.getSql(), query.getLimits());
+
+    synchronized (this) {
+      Estimate cached = estimates.get(key);
+      if (cached != null && cached.version == version) {
+        return cached.estimate;
+      }
+    }
+
+    CostEstimate estimate;
+
+    try (Connection connection = connectionManager.getConnection(session)) {
+      if (!"PostgreSQL".equals(connection.getMetaData().getDatabaseProductName())) {
+        return null;
+      }
+
+      JsonNode plan = explain(connection, query);
+      double rows = plan.get("Plan Rows").asDouble();
+      if (points != null && query.getLineSeries() != null) {
+        rows = Math.min(rows, points * explain(connection, query.getLineSeries()).get("Plan Rows").asDouble());
+      }
+      estimate = new CostEstimate(plan.get("Total Cost").asDouble(), rows);
+    } catch (Exception e) {
+      e.printStackTrace();
+      return null;
+    }
+
+    synchronized (this) {
+      estimates.put(key, new Estimate(version, estimate));
+      if (estimates.size() > estimateCacheSize) {
+        estimates.remove(estimates.keySet().iterator().next());
+      }
+    }
+
+    return estimate;
+  }
+
+  // the top node of the query's plan
+  private JsonNode explain(Connection connection, ChartQuery query) throws SQLException, IOException {
+    try (PreparedStatement statement = connection.prepareStatement("EXPLAIN (FORMAT JSON) " + query.getSql())) {
+      query.bind(statement);
+      try (ResultSet rs = statement.executeQuery()) {
+        rs.next();
+        return objectMapper.readTree(rs.getString(1)).get(0).get("Plan");
+      }
+    }
+  }
+
+  private TableSample sampleLargest(DatabaseSession session, List<String> tableNames, double rate) {
+    try (Connection connection = connectionManager.getConnection(session)) {
+      return previewSampler.sample(connection, tableNames, rate);
+    } catch (SQLException e) {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  public interface QueryPlanner {
+    ChartQuery plan(TableSample sample, int limit);
+  }
+
+  private static class Estimate {
+
+    private final long version;
+    private final CostEstimate estimate;
+
+    private Estimate(long version, CostEstimate estimate) {
+      this.version = version;
+      this.estimate = estimate;
+    }
+  }
+}
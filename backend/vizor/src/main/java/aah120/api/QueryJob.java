@@ -0,0 +1,167 @@
+package aah120.api;
+
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.fasterxml.jackson.databind.util.RawValue;
+
+import aah120.dto.JobStatus;
+
+public class QueryJob {
+
+  public enum State {
+    QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED, TIMED_OUT;
+
+    public boolean isDone() {
+      return this != QUEUED && this != RUNNING;
+    }
+  }
+
+  private final String id;
+  private final DatabaseSession session;
+  private final ChartQuery query;
+  private final long timeoutMillis;
+  private final Function<GovernedResult<RawValue>, Object> finisher;
+  private final long createdAt;
+  private final AtomicLong rowCount = new AtomicLong();
+  private final List<SseEmitter> subscribers = new CopyOnWriteArrayList<>();
+
+  private volatile State state = State.QUEUED;
+  private volatile long startedAt;
+  private volatile long finishedAt;
+  private volatile long lastSeen;
+  private volatile Object result;
+  private volatile String error;
+  private volatile String truncated;
+  private volatile boolean cancelRequested;
+  private volatile Statement statement;
+  private volatile Future<?> future;
+
+  // finisher turns the fetched rows into the response the job hands back
+  public QueryJob(String id, DatabaseSession session, ChartQuery query, long timeoutMillis,
+      Function<GovernedResult<RawValue>, Object> finisher) {
+    this.id = id;
+    this.session = session;
+    this.query = query;
+    this.timeoutMillis = timeoutMillis;
+    this.finisher = finisher;
+    this.createdAt = System.currentTimeMillis();
+    this.lastSeen = createdAt;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public DatabaseSession getSession() {
+    return session;
+  }
+
+  public ChartQuery getQuery() {
+    return query;
+  }
+
+  public long getTimeoutMillis() {
+    return timeoutMillis;
+  }
+
+  public Function<GovernedResult<RawValue>, Object> getFinisher() {
+    return finisher;
+  }
+
+  public State getState() {
+    return state;
+  }
+
+  public long getFinishedAt() {
+    return finishedAt;
+  }
+
+  public Object getResult() {
+    return result;
+  }
+
+  // null for a complete result, otherwise the budget that cut it short: rows or bytes
+  public String getTruncated() {
+    return truncated;
+  }
+
+  public List<SseEmitter> getSubscribers() {
+    return subscribers;
+  }
+
+  public void addRows(long rows) {
+    rowCount.addAndGet(rows);
+  }
+
+  // last time a client asked about the job; running jobs nobody asks about are treated as abandoned
+  public long getLastSeen() {
+    return lastSeen;
+  }
+
+  public void touch() {
+    lastSeen = System.currentTimeMillis();
+  }
+
+  public boolean isCancelRequested() {
+    return cancelRequested;
+  }
+
+  public void requestCancel() {
+    cancelRequested = true;
+  }
+
+  // the running statement, so a cancel can interrupt it on the server
+  public Statement getStatement() {
+    return statement;
+  }
+
+  public void setStatement(Statement statement) {
+    this.statement = statement;
+  }
+
+  public Future<?> getFuture() {
+    return future;
+  }
+
+  public void setFuture(Future<?> future) {
+    this.future = future;
+  }
+
+  public void start() {
+    startedAt = System.currentTimeMillis();
+    state = State.RUNNING;
+  }
+
+  public synchronized void succeed(Object result, String truncated) {
+    this.result = result;
+    this.truncated = truncated;
+    finish(State.SUCCEEDED, null);
+  }
+
+  // first terminal state wins, so a late cancel cannot overwrite a result and vice versa
+  public synchronized boolean finish(State state, String error) {
+    if (this.state.isDone()) {
+      return false;
+    }
+
+    this.error = error;
+    this.finishedAt = System.currentTimeMillis();
+    this.state = state;
+    return true;
+  }
+
+  public JobStatus status() {
+    long end = state.isDone() ? finishedAt : System.currentTimeMillis();
+    long elapsed = startedAt == 0 ? 0 : end - startedAt;
+
+    return new JobStatus(id, state.name(), rowCount.get(), elapsed, timeoutMillis, truncated,
+        error);
+  }
+}
@@ -0,0 +1,246 @@
+package aah120.api;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.fasterxml.jackson.databind.util.RawValue;
+
+@Component
+public class QueryJobManager {
+
+  private final ExecutorService queryExecutor;
+  private final DatabaseConnectionManager connectionManager;
+  private final ResourceGovernor governor;
+  private final JsonRowSerializer rowSerializer;
+  private final long defaultTimeoutMillis;
+  private final long maxTimeoutMillis;
+  private final long abandonAfterMillis;
+  private final long retentionMillis;
+  private final Map<String, QueryJob> jobs = new ConcurrentHashMap<>();
+
+  public QueryJobManager(@Qualifier("queryExecutor") ExecutorService queryExecutor,
+      DatabaseConnectionManager connectionManager, ResourceGovernor governor, JsonRowSerializer rowSerializer,
+      @Value("${vizor.jobs.default-timeout-ms}") long defaultTimeoutMillis,
+      @Value("${vizor.jobs.max-timeout-ms}") long maxTimeoutMillis,
+      @Value("${vizor.jobs.abandon-after-ms}") long abandonAfterMillis,
+      @Value("${vizor.jobs.retention-ms}") long retentionMillis) {
+    this.queryExecutor = queryExecutor;
+    this.connectionManager = connectionManager;
+    this.governor = governor;
+    this.rowSerializer = rowSerializer;
+    this.defaultTimeoutMillis = defaultTimeoutMillis;
+    this.maxTimeoutMillis = maxTimeoutMillis;
+    this.abandonAfterMillis = abandonAfterMillis;
+    this.retentionMillis = retentionMillis;
+  }
+
+  // throws RejectedExecutionException when the executor's queue is full
+  public QueryJob submit(DatabaseSession session, ChartQuery query, Long timeoutMillis,
+      Function<GovernedResult<RawValue>, Object> finisher) {
+
+    long timeout = timeoutMillis == null ? defaultTimeoutMillis
+        : Math.max(1, Math.min(timeoutMillis, maxTimeoutMillis));
+
+    QueryJob job = new QueryJob(UUID.randomUUID().toString(), session, query, timeout, finisher);
+    jobs.put(job.getId(), job);
+
+    try {
+      job.setFuture(queryExecutor.submit(() -> run(job)));
+    } catch (RuntimeException e) {
+      jobs.remove(job.getId());
+      throw e;
+    }
+
+    return job;
+  }
+
+  public QueryJob get(String id) {
+    QueryJob job = jobs.get(id);
+    if (job != null) {
+      job.touch();
+    }
+
+    return job;
+  }
+
+  public void cancel(QueryJob job) {
+
+    if (job.getState().isDone()) {
+      return;
+    }
+
+    job.requestCancel();
+
+    // still queued: it never reaches the database (if it starts meanwhile, run() sees the request first thing)
+    Future<?> future = job.getFuture();
+    if (job.getState() == QueryJob.State.QUEUED && future != null && future.cancel(false)) {
+      finish(job, QueryJob.State.CANCELLED, "Cancelled");
+      return;
+    }
+
+    Statement statement = job.getStatement();
+    if (statement != null) {
+      try {
+        statement.cancel();
+      } catch (SQLException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  // pushes the status now and on every sweep until the job is done; the last subscriber leaving cancels it
+  public SseEmitter subscribe(QueryJob job) {
+
+    SseEmitter emitter = new SseEmitter();
+    job.getSubscribers().add(emitter);
+
+    emitter.onCompletion(() -> unsubscribe(job, emitter));
+    emitter.onTimeout(() -> unsubscribe(job, emitter));
+    emitter.onError(e -> unsubscribe(job, emitter));
+
+    publish(job);
+
+    return emitter;
+  }
+
+  @Scheduled(fixedDelayString = "${vizor.jobs.sweep-interval-ms}")
+  public void sweep() {
+
+    long now = System.currentTimeMillis();
+
+    for (QueryJob job : jobs.values()) {
+      if (job.getState().isDone()) {
+        if (now - job.getFinishedAt() > retentionMillis) {
+          jobs.remove(job.getId());
+        }
+        continue;
+      }
+
+      publish(job);
+
+      if (now - job.getLastSeen() > abandonAfterMillis) {
+        cancel(job);
+      }
+    }
+  }
+
+  private void run(QueryJob job) {
+
+    if (job.isCancelRequested()) {
+      finish(job, QueryJob.State.CANCELLED, "Cancelled");
+      return;
+    }
+
+    job.start();
+    publish(job);
+
+    try {
+      GovernedResult<RawValue> result = fetch(job);
+
+      // past its deadline a job has no result, not a partial one; the governor has already counted it
+      if (GovernedResult.TIMEOUT.equals(result.getTruncated())) {
+        finish(job, QueryJob.State.TIMED_OUT, "Query ran past its " + job.getTimeoutMillis() + " ms deadline");
+        return;
+      }
+
+      job.succeed(job.getFinisher().apply(result), result.getTruncated());
+      publish(job);
+    } catch (SQLException e) {
+      if (job.isCancelRequested()) {
+        finish(job, QueryJob.State.CANCELLED, "Cancelled");
+      } else {
+        e.printStackTrace();
+        finish(job, QueryJob.State.FAILED, e.getMessage());
+      }
+    } catch (RuntimeException e) {
+      e.printStackTrace();
+      finish(job, QueryJob.State.FAILED, e.getMessage());
+    }
+  }
+
+  // held to the governor's jobs budget like any buffered result, since finished results are kept for a while;
+  // the job's own deadline is the read's deadline when it is the shorter
+  private GovernedResult<RawValue> fetch(QueryJob job) throws SQLException {
+
+    ResourceGovernor.FetchControl control = new ResourceGovernor.FetchControl() {
+
+      @Override
+      public Long timeoutMillis() {
+        return job.getTimeoutMillis();
+      }
+
+      @Override
+      public void executing(Statement statement) {
+        job.setStatement(statement);
+      }
+
+      @Override
+      public void fetched(long rows) {
+        job.addRows(rows);
+      }
+
+      @Override
+      public boolean isCancelled() {
+        return job.isCancelRequested();
+      }
+    };
+
+    try (Connection connection = connectionManager.getConnection(job.getSession())) {
+      return governor.fetch(connection, job.getQuery(), ResourceGovernor.JOBS, job.getSession().getUser(),
+          rowSerializer::open, control);
+    } finally {
+      job.setStatement(null);
+    }
+  }
+
+  private void finish(QueryJob job, QueryJob.State state, String error) {
+    if (job.finish(state, error)) {
+      if (state == QueryJob.State.CANCELLED) {
+        governor.recordCancelled(ResourceGovernor.JOBS);
+      }
+      publish(job);
+    }
+  }
+
+  private void publish(QueryJob job) {
+
+    boolean done = job.getState().isDone();
+
+    for (SseEmitter emitter : job.getSubscribers()) {
+      try {
+        emitter.send(SseEmitter.event().name("status").data(job.status()));
+        job.touch();
+
+        if (done) {
+          emitter.complete();
+        }
+      } catch (IOException | IllegalStateException e) {
+        // the client went away; onError/onCompletion take care of the rest
+        job.getSubscribers().remove(emitter);
+        emitter.completeWithError(e);
+      }
+    }
+  }
+
+  private void unsubscribe(QueryJob job, SseEmitter emitter) {
+    job.getSubscribers().remove(emitter);
+
+    if (job.getSubscribers().isEmpty() && !job.getState().isDone()) {
+      cancel(job);
+    }
+  }
+}
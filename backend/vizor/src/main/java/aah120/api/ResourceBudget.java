@@ -0,0 +1,27 @@
+package aah120.api;
+
+public class ResourceBudget {
+
+  private final long timeoutMillis;
+  private final long maxRows;
+  private final long maxBytes;
+
+  public ResourceBudget(long timeoutMillis, long maxRows, long maxBytes) {
+    this.timeoutMillis = timeoutMillis;
+    this.maxRows = maxRows;
+    this.maxBytes = maxBytes;
+  }
+
+  public long getTimeoutMillis() {
+    return timeoutMillis;
+  }
+
+  public long getMaxRows() {
+    return maxRows;
+  }
+
+  // estimated heap taken by the materialised result, as ResultCache estimates it
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+}
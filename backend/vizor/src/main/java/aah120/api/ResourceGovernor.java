@@ -0,0 +1,221 @@
+package aah120.api;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import aah120.dto.GovernorStats;
+
+@Component
+public class ResourceGovernor {
+
+  public static final String DF_VISUALISE = "df-visualise";
+  public static final String VF_EXECUTE = "vf-execute";
+  public static final String JOBS = "jobs";
+
+  private static final String QUERY_CANCELED = "57014";
+
+  private final Environment environment;
+  private final int fetchSize;
+  private final Map<String, ResourceBudget> budgets = new ConcurrentHashMap<>();
+  private final Map<String, Counters> counters = new ConcurrentHashMap<>();
+
+  public ResourceGovernor(Environment environment, @Value("${vizor.stream.fetch-size}") int fetchSize) {
+    this.environment = environment;
+    this.fetchSize = fetchSize;
+  }
+
+  // vizor.governor.<endpoint>.<setting>, overridden by vizor.governor.<endpoint>.users.<database user>.<setting>
+  public ResourceBudget budget(String endpoint, String user) {
+    return budgets.computeIfAbsent(endpoint + "\n" + user, key -> new ResourceBudget(
+        setting(endpoint, user, "timeout-ms"), setting(endpoint, user, "max-rows"),
+        setting(endpoint, user, "max-bytes")));
+  }
+
+  // reads through a cursor under statement_timeout, and stops at the row cap, the byte budget or the deadline
+  // with whatever was read so far; statement_timeout only covers each round trip, so the deadline is also
+  // checked between batches. The row cap is on the rows the sink keeps, which for a downsampled line is far
+  // fewer than it reads
+  public <T> GovernedResult<T> fetch(Connection connection, ChartQuery query, String endpoint, String user,
+      RowSinkFactory<T> sinkFactory) throws SQLException {
+    return fetch(connection, query, endpoint, user, sinkFactory, FetchControl.NONE);
+  }
+
+  // as above, with a caller that can shorten the deadline, follow progress and cancel the read; a cancelled
+  // read throws query_canceled instead of returning what it has
+  public <T> GovernedResult<T> fetch(Connection connection, ChartQuery query, String endpoint, String user,
+      RowSinkFactory<T> sinkFactory, FetchControl control) throws SQLException {
+
+    ResourceBudget budget = budget(endpoint, user);
+    Counters count = counters(endpoint);
+    count.queries.incrementAndGet();
+
+    long timeoutMillis = control.timeoutMillis() == null ? budget.getTimeoutMillis()
+        : Math.min(control.timeoutMillis(), budget.getTimeoutMillis());
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    boolean autoCommit = connection.getAutoCommit();
+    connection.setAutoCommit(false);
+
+    try {
+      try (PreparedStatement timeout = connection
+          .prepareStatement("SELECT set_config('statement_timeout', ?, true)")) {
+        timeout.setString(1, Long.toString(timeoutMillis));
+        timeout.execute();
+      }
+
+      RowSink<T> sink = null;
+      long rows = 0;
+      long bytes = 0;
+      long reported = 0;
+      String truncated = null;
+
+      try (PreparedStatement statement = query.prepare(connection)) {
+        statement.setFetchSize(fetchSize);
+        control.executing(statement);
+
+        // a cancel that arrived before the statement was visible to the caller
+        if (control.isCancelled()) {
+          throw new SQLException("Cancelled", QUERY_CANCELED);
+        }
+
+        try (ResultSet resultSet = statement.executeQuery()) {
+          sink = sinkFactory.open(resultSet.getMetaData());
+
+          while (resultSet.next()) {
+            if (sink.kept(rows) >= budget.getMaxRows()) {
+              truncated = GovernedResult.ROWS;
+              break;
+            }
+
+            bytes += sink.add(resultSet);
+            rows++;
+
+            if (bytes > budget.getMaxBytes()) {
+              truncated = GovernedResult.BYTES;
+              break;
+            }
+            if (rows % fetchSize == 0) {
+              control.fetched(rows - reported);
+              reported = rows;
+
+              // statement_timeout and cancel only reach a statement while it executes, not between cursor
+              // fetches, so a result that is still streaming in is stopped here
+              if (control.isCancelled()) {
+                throw new SQLException("Cancelled", QUERY_CANCELED);
+              }
+              if (System.currentTimeMillis() > deadline) {
+                truncated = GovernedResult.TIMEOUT;
+                break;
+              }
+            }
+          }
+          control.fetched(rows - reported);
+        }
+      } catch (SQLException e) {
+        if (!QUERY_CANCELED.equals(e.getSQLState()) || control.isCancelled()) {
+          throw e;
+        }
+        truncated = GovernedResult.TIMEOUT;
+      }
+
+      if (GovernedResult.ROWS.equals(truncated)) {
+        count.truncatedRows.incrementAndGet();
+      } else if (GovernedResult.BYTES.equals(truncated)) {
+        count.truncatedBytes.incrementAndGet();
+      } else if (GovernedResult.TIMEOUT.equals(truncated)) {
+        count.timedOut.incrementAndGet();
+      }
+
+      // a timeout before the first row leaves nothing to build from
+      T data = sink == null ? null : sink.finish();
+
+      return new GovernedResult<>(data, bytes, truncated);
+    } finally {
+      connection.rollback();
+      connection.setAutoCommit(autoCommit);
+    }
+  }
+
+  // for reads stopped by their caller rather than a budget, e.g. cancelled background jobs
+  public void recordCancelled(String endpoint) {
+    counters(endpoint).cancelled.incrementAndGet();
+  }
+
+  public List<GovernorStats> getStats() {
+    List<GovernorStats> stats = new ArrayList<>();
+    counters.forEach((endpoint, count) -> stats.add(new GovernorStats(endpoint, count.queries.get(),
+        count.truncatedRows.get(), count.truncatedBytes.get(), count.timedOut.get(), count.cancelled.get())));
+    return stats;
+  }
+
+  private long setting(String endpoint, String user, String name) {
+    String prefix = "vizor.governor." + endpoint + ".";
+    return environment.getProperty(prefix + "users." + user + "." + name, Long.class,
+        environment.getRequiredProperty(prefix + name, Long.class));
+  }
+
+  private Counters counters(String endpoint) {
+    return counters.computeIfAbsent(endpoint, e -> new Counters());
+  }
+
+  public interface RowSinkFactory<T> {
+    RowSink<T> open(ResultSetMetaData metaData) throws SQLException;
+  }
+
+  public interface FetchControl {
+
+    FetchControl NONE = new FetchControl() {
+    };
+
+    // a deadline shorter than the budget's, or null for the budget's own
+    default Long timeoutMillis() {
+      return null;
+    }
+
+    // the statement about to run, so another thread can cancel it on the server
+    default void executing(Statement statement) {
+    }
+
+    // rows read since the last call, reported between cursor fetches
+    default void fetched(long rows) {
+    }
+
+    default boolean isCancelled() {
+      return false;
+    }
+  }
+
+  public interface RowSink<T> {
+
+    // adds the result set's current row and returns its estimated size in bytes
+    long add(ResultSet resultSet) throws SQLException;
+
+    // how many of the rows read so far are in the result
+    default long kept(long read) {
+      return read;
+    }
+
+    T finish();
+  }
+
+  private static class Counters {
+
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong truncatedRows = new AtomicLong();
+    private final AtomicLong truncatedBytes = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+  }
+}
@@ -0,0 +1,158 @@
+package aah120.api;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import aah120.dto.CacheStats;
+import aah120.dto.ColumnarColumn;
+import aah120.dto.ColumnarData;
+
+@Component
+public class ResultCache {
+
+  // rough per-object overheads on a 64-bit JVM with compressed oops
+  private static final long OBJECT_OVERHEAD = 16;
+  private static final long REFERENCE_SIZE = 8;
+
+  private final long maxBytes;
+  private final long ttlMillis;
+
+  // access-ordered, so iteration starts at the least recently used entry
+  private final LinkedHashMap<ResultCacheKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long currentBytes;
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  public ResultCache(@Value("${vizor.cache.max-bytes}") long maxBytes,
+      @Value("${vizor.cache.ttl-seconds}") long ttlSeconds) {
+    this.maxBytes = maxBytes;
+    this.ttlMillis = ttlSeconds * 1000;
+  }
+
+  // returns the cached value only if it was produced under the given metadata version and has not expired
+  public synchronized Object get(ResultCacheKey key, long version) {
+
+    Entry entry = entries.get(key);
+
+    if (entry == null) {
+      misses++;
+      return null;
+    }
+
+    if (entry.version != version || System.currentTimeMillis() - entry.createdAt > ttlMillis) {
+      remove(key, entry);
+      evictions++;
+      misses++;
+      return null;
+    }
+
+    hits++;
+    return entry.value;
+  }
+
+  public synchronized void put(ResultCacheKey key, long version, Object value, long bytes) {
+
+    // a single result bigger than the whole cache would only flush everything else out
+    if (bytes > maxBytes) {
+      return;
+    }
+
+    Entry previous = entries.remove(key);
+    if (previous != null) {
+      currentBytes -= previous.bytes;
+    }
+
+    entries.put(key, new Entry(version, value, bytes, System.currentTimeMillis()));
+    currentBytes += bytes;
+
+    Iterator<Map.Entry<ResultCacheKey, Entry>> iterator = entries.entrySet().iterator();
+    while (currentBytes > maxBytes && iterator.hasNext()) {
+      Map.Entry<ResultCacheKey, Entry> eldest = iterator.next();
+      currentBytes -= eldest.getValue().bytes;
+      iterator.remove();
+      evictions++;
+    }
+  }
+
+  // drops every result of the connection, used when its metadata is replaced
+  public synchronized void invalidate(String connectionKey) {
+
+    Iterator<Map.Entry<ResultCacheKey, Entry>> iterator = entries.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<ResultCacheKey, Entry> entry = iterator.next();
+      if (Objects.equals(entry.getKey().getConnectionKey(), connectionKey)) {
+        currentBytes -= entry.getValue().bytes;
+        iterator.remove();
+        evictions++;
+      }
+    }
+  }
+
+  public synchronized CacheStats getStats() {
+    return new CacheStats(hits, misses, evictions, entries.size(), currentBytes, maxBytes);
+  }
+
+  private void remove(ResultCacheKey key, Entry entry) {
+    entries.remove(key);
+    currentBytes -= entry.bytes;
+  }
+
+  public static long estimateColumnar(ColumnarData data) {
+
+    long bytes = OBJECT_OVERHEAD * 2;
+    for (ColumnarColumn column : data.getColumns()) {
+      bytes += OBJECT_OVERHEAD * 2;
+      if (column.getCodes() != null) {
+        bytes += 4L * column.getCodes().length;
+        for (String value : column.getDictionary()) {
+          bytes += estimateCell(value);
+        }
+      } else {
+        for (Object value : column.getValues()) {
+          bytes += estimateCell(value);
+        }
+      }
+    }
+
+    return bytes;
+  }
+
+  // one value held in a column list
+  public static long estimateCell(Object value) {
+    return REFERENCE_SIZE + estimateValue(value);
+  }
+
+  private static long estimateValue(Object value) {
+    if (value == null) {
+      return 0;
+    }
+    if (value instanceof String) {
+      return OBJECT_OVERHEAD * 2 + ((String) value).length();
+    }
+    if (value instanceof Number || value instanceof Boolean) {
+      return OBJECT_OVERHEAD + 8;
+    }
+    return OBJECT_OVERHEAD * 3;
+  }
+
+  private static class Entry {
+
+    private final long version;
+    private final Object value;
+    private final long bytes;
+    private final long createdAt;
+
+    private Entry(long version, Object value, long bytes, long createdAt) {
+      this.version = version;
+      this.value = value;
+      this.bytes = bytes;
+      this.createdAt = createdAt;
+    }
+  }
+}
@@ -0,0 +1,73 @@
+package aah120.api;
+
+import java.util.List;
+import java.util.Objects;
+
+public class ResultCacheKey {
+
+  private final String connectionKey;
+  private final String kind;
+  private final String sql;
+  private final List<Object> params;
+
+  public ResultCacheKey(String connectionKey, String kind, String sql, List<Object> params) {
+    this.connectionKey = connectionKey;
+    this.kind = kind;
+    this.sql = normalize(sql);
+    this.params = params;
+  }
+
+  public String getConnectionKey() {
+    return connectionKey;
+  }
+
+  // collapses runs of whitespace outside quoted literals and identifiers so formatting differences share an entry
+  static String normalize(String sql) {
+
+    StringBuilder normalized = new StringBuilder(sql.length());
+    char quote = 0;
+    boolean pendingSpace = false;
+
+    for (int i = 0; i < sql.length(); i++) {
+      char c = sql.charAt(i);
+
+      if (quote != 0) {
+        normalized.append(c);
+        if (c == quote) {
+          quote = 0;
+        }
+      } else if (Character.isWhitespace(c)) {
+        pendingSpace = normalized.length() > 0;
+      } else {
+        if (pendingSpace) {
+          normalized.append(' ');
+          pendingSpace = false;
+        }
+        if (c == '\'' || c == '"') {
+          quote = c;
+        }
+        normalized.append(c);
+      }
+    }
+
+    return normalized.toString();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof ResultCacheKey)) {
+      return false;
+    }
+    ResultCacheKey other = (ResultCacheKey) o;
+    return Objects.equals(connectionKey, other.connectionKey) && kind.equals(other.kind) && sql.equals(other.sql)
+        && params.equals(other.params);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(connectionKey, kind, sql, params);
+  }
+}
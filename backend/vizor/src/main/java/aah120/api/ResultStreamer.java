@@ -0,0 +1,101 @@
+package aah120.api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@Component
+public class ResultStreamer {
+
+  private final ObjectMapper objectMapper;
+  private final BinaryResultEncoder binaryEncoder;
+  private final JsonRowSerializer rowSerializer;
+  private final int fetchSize;
+
+  public ResultStreamer(ObjectMapper objectMapper, BinaryResultEncoder binaryEncoder,
+      JsonRowSerializer rowSerializer, @Value("${vizor.stream.fetch-size}") int fetchSize) {
+    this.objectMapper = objectMapper;
+    this.binaryEncoder = binaryEncoder;
+    this.rowSerializer = rowSerializer;
+    this.fetchSize = fetchSize;
+  }
+
+  public void stream(Connection connection, ChartQuery query, Object header, StreamFormat format, OutputStream out)
+      throws SQLException, IOException {
+
+    // pgjdbc only fetches through a server-side cursor outside autocommit
+    boolean autoCommit = connection.getAutoCommit();
+    connection.setAutoCommit(false);
+
+    try (PreparedStatement statement = connection.prepareStatement(query.getSql(), ResultSet.TYPE_FORWARD_ONLY,
+        ResultSet.CONCUR_READ_ONLY)) {
+      statement.setFetchSize(fetchSize);
+      query.bind(statement);
+
+      try (ResultSet resultSet = statement.executeQuery()) {
+        if (format == StreamFormat.BINARY) {
+          byte[] headerBytes = objectMapper.writeValueAsBytes(header == null ? Map.of() : header);
+          binaryEncoder.write(resultSet, headerBytes, out);
+        } else {
+          writeNdjson(resultSet, header, out);
+        }
+      }
+
+      connection.commit();
+    } catch (SQLException | IOException e) {
+      connection.rollback();
+      throw e;
+    } finally {
+      connection.setAutoCommit(autoCommit);
+    }
+  }
+
+  // one JSON value on its own line, flushed so the client sees it straight away
+  public void writeLine(Object value, OutputStream out) throws IOException {
+    out.write(objectMapper.writeValueAsBytes(value));
+    out.write('\n');
+    out.flush();
+  }
+
+  // writes the optional header and then one JSON object per row, each on its own line
+  private void writeNdjson(ResultSet resultSet, Object header, OutputStream out) throws SQLException, IOException {
+
+    try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+
+      generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+      generator.setRootValueSeparator(null);
+
+      if (header != null) {
+        generator.writeObject(header);
+        generator.writeRaw('\n');
+      }
+
+      JsonRowSerializer.RowWriter rowWriter = rowSerializer.compile(resultSet.getMetaData());
+
+      int buffered = 0;
+      while (resultSet.next()) {
+        rowWriter.write(resultSet, generator);
+        generator.writeRaw('\n');
+
+        // push each fetched batch to the client before pulling the next one
+        if (++buffered == fetchSize) {
+          generator.flush();
+          buffered = 0;
+        }
+      }
+
+      generator.flush();
+    }
+  }
+}
@@ -0,0 +1,11 @@
+package aah120.api;
+
+// the request sent no session, or one that has expired or never existed
+public class SessionRequiredException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  public SessionRequiredException() {
+    super("No database session, log in first");
+  }
+}
@@ -0,0 +1,17 @@
+package aah120.api;
+
+public enum StreamFormat {
+
+  NDJSON("application/x-ndjson"),
+  BINARY("application/vnd.vizor.binary");
+
+  private final String mediaType;
+
+  StreamFormat(String mediaType) {
+    this.mediaType = mediaType;
+  }
+
+  public String getMediaType() {
+    return mediaType;
+  }
+}
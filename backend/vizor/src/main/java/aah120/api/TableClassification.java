@@ -0,0 +1,63 @@
+package aah120.api;
+
+import java.util.List;
+import java.util.Set;
+
+import aah120.dto.Column;
+
+public class TableClassification {
+
+  private final String tableName;
+  private final Set<String> visTypes;
+  private final List<Column> primaryKeys;
+  private final List<Column> foreignKeys;
+  private final List<Column> attributes;
+  private final List<Column> scalarAttributes;
+  private final List<Column> temporalAttributes;
+
+  public TableClassification(String tableName, Set<String> visTypes, List<Column> primaryKeys,
+      List<Column> foreignKeys, List<Column> attributes, List<Column> scalarAttributes,
+      List<Column> temporalAttributes) {
+    this.tableName = tableName;
+    this.visTypes = visTypes;
+    this.primaryKeys = primaryKeys;
+    this.foreignKeys = foreignKeys;
+    this.attributes = attributes;
+    this.scalarAttributes = scalarAttributes;
+    this.temporalAttributes = temporalAttributes;
+  }
+
+  public String getTableName() {
+    return tableName;
+  }
+
+  // vis types the metadata allows; stacked-bar and spider still need the data to be complete weak
+  public Set<String> getVisTypes() {
+    return visTypes;
+  }
+
+  public boolean supports(String visId) {
+    return visTypes.contains(visId);
+  }
+
+  public List<Column> getPrimaryKeys() {
+    return primaryKeys;
+  }
+
+  public List<Column> getForeignKeys() {
+    return foreignKeys;
+  }
+
+  public List<Column> getAttributes() {
+    return attributes;
+  }
+
+  // the attributes in table order, narrowed to the types the vis options are built from
+  public List<Column> getScalarAttributes() {
+    return scalarAttributes;
+  }
+
+  public List<Column> getTemporalAttributes() {
+    return temporalAttributes;
+  }
+}
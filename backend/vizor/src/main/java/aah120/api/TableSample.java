@@ -0,0 +1,40 @@
+package aah120.api;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.List;
+
+// a TABLESAMPLE on one table of a preview query
+public class TableSample {
+
+  // fixed so the same preview is drawn each time, which also lets the result cache serve it
+  private static final int SEED = 0;
+
+  private final String tableName;
+  private final String method;
+  private final BigDecimal percent;
+
+  public TableSample(String tableName, String method, double rate) {
+    this.tableName = tableName;
+    this.method = method;
+    this.percent = BigDecimal.valueOf(rate * 100).round(new MathContext(4));
+  }
+
+  public String getTableName() {
+    return tableName;
+  }
+
+  // fraction of the table's rows the sample keeps, as used in the sql
+  public double getRate() {
+    return percent.doubleValue() / 100;
+  }
+
+  // the table list with the sampled table swapped for its TABLESAMPLE clause
+  public List<String> apply(List<String> tableNames) {
+    return tableNames.stream().map(t -> t.equals(tableName) ? fromItem() : t).toList();
+  }
+
+  private String fromItem() {
+    return tableName + " TABLESAMPLE " + method + " (" + percent.toPlainString() + ") REPEATABLE (" + SEED + ")";
+  }
+}
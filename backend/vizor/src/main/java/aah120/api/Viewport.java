@@ -0,0 +1,65 @@
+package aah120.api;
+
+import java.util.List;
+
+// the visible x range, and y range for scatter charts, of a zoomed chart; any bound may be left open
+public class Viewport {
+
+  private final String xMin;
+  private final String xMax;
+  private final String yMin;
+  private final String yMax;
+  private final String xColumn;
+  private final String yColumn;
+
+  public Viewport(String xMin, String xMax, String yMin, String yMax) {
+    this(xMin, xMax, yMin, yMax, null, null);
+  }
+
+  private Viewport(String xMin, String xMax, String yMin, String yMax, String xColumn, String yColumn) {
+    this.xMin = xMin;
+    this.xMax = xMax;
+    this.yMin = yMin;
+    this.yMax = yMax;
+    this.xColumn = xColumn;
+    this.yColumn = yColumn;
+  }
+
+  // the same ranges over the chart's x and y columns; yColumn is null for line charts, whose y is aggregated
+  public Viewport on(String xColumn, String yColumn) {
+    return new Viewport(xMin, xMax, yMin, yMax, xColumn, yColumn);
+  }
+
+  public String getXMin() {
+    return xMin;
+  }
+
+  public String getXMax() {
+    return xMax;
+  }
+
+  public String getYMin() {
+    return yMin;
+  }
+
+  public String getYMax() {
+    return yMax;
+  }
+
+  // bounds are bound untyped so they compare as the column's own type, which keeps an index on it usable
+  public void appendRange(StringBuilder sb, List<Object> params) {
+    appendBound(sb, xColumn, ">=", xMin, params);
+    appendBound(sb, xColumn, "<=", xMax, params);
+    if (yColumn != null) {
+      appendBound(sb, yColumn, ">=", yMin, params);
+      appendBound(sb, yColumn, "<=", yMax, params);
+    }
+  }
+
+  private void appendBound(StringBuilder sb, String column, String comparator, String bound, List<Object> params) {
+    if (bound != null) {
+      sb.append(" AND ").append(column).append(" ").append(comparator).append(" ?");
+      params.add(new ChartQuery.UntypedParam(bound));
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package aah120.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.util.RawValue;
+
+// one chart of a vf-execute batch, written as soon as it is ready; index is its position in the request
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchResult {
+
+    private final int index;
+    private final RawValue data;
+    private final String truncated;
+    private final Integer bins;
+    private final String error;
+
+    public BatchResult(int index, RawValue data, String truncated, Integer bins, String error) {
+        this.index = index;
+        this.data = data;
+        this.truncated = truncated;
+        this.bins = bins;
+        this.error = error;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public RawValue getData() {
+        return data;
+    }
+
+    public String getTruncated() {
+        return truncated;
+    }
+
+    // set when data holds the cells of a bins x bins grid, as vf-execute's X-Vizor-Binned header says
+    public Integer getBins() {
+        return bins;
+    }
+
+    // set instead of data when the chart could not be run
+    public String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,53 @@
+package aah120.dto;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ColumnarColumn {
+
+    private final String name;
+    private final String type;
+    private final List<Object> values;
+    private final List<String> dictionary;
+    private final int[] codes;
+
+    // plain column, one value per row
+    public ColumnarColumn(String name, String type, List<Object> values) {
+        this.name = name;
+        this.type = type;
+        this.values = values;
+        this.dictionary = null;
+        this.codes = null;
+    }
+
+    // dictionary-encoded column, one index into the dictionary per row (-1 for null)
+    public ColumnarColumn(String name, String type, List<String> dictionary, int[] codes) {
+        this.name = name;
+        this.type = type;
+        this.values = null;
+        this.dictionary = dictionary;
+        this.codes = codes;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public List<Object> getValues() {
+        return values;
+    }
+
+    public List<String> getDictionary() {
+        return dictionary;
+    }
+
+    public int[] getCodes() {
+        return codes;
+    }
+}
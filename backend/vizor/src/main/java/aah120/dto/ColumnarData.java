@@ -0,0 +1,22 @@
+package aah120.dto;
+
+import java.util.List;
+
+public class ColumnarData {
+
+    private final int rowCount;
+    private final List<ColumnarColumn> columns;
+
+    public ColumnarData(int rowCount, List<ColumnarColumn> columns) {
+        this.rowCount = rowCount;
+        this.columns = columns;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public List<ColumnarColumn> getColumns() {
+        return columns;
+    }
+}
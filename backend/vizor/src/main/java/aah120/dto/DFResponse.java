@@ -1,18 +1,52 @@
 package aah120.dto;
 
 import java.util.List;
-import java.util.Map;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.util.RawValue;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class DFResponse {
     
     private final String pattern;
     private final List<VisualisationOption> visualisations;
-    private final List<Map<String, Object>> data;
+    private final RawValue data;
+    private final ColumnarData columns;
+    private final Boolean sampled;
+    private final Double samplingRate;
+    private final Integer rowLimit;
+    private final String truncated;
+
+    public DFResponse(String pattern, List<VisualisationOption> visualisations, RawValue data) {
+        this(pattern, visualisations, data, null, null, null, null);
+    }
 
-    public DFResponse(String pattern, List<VisualisationOption> visualisations, List<Map<String, Object>> data) {
+    public DFResponse(String pattern, List<VisualisationOption> visualisations, RawValue data, Boolean sampled,
+            Double samplingRate, Integer rowLimit, String truncated) {
         this.pattern = pattern;
         this.visualisations = visualisations;
         this.data = data;
+        this.columns = null;
+        this.sampled = sampled;
+        this.samplingRate = samplingRate;
+        this.rowLimit = rowLimit;
+        this.truncated = truncated;
+    }
+
+    public DFResponse(String pattern, List<VisualisationOption> visualisations, ColumnarData columns) {
+        this(pattern, visualisations, columns, null, null, null, null);
+    }
+
+    public DFResponse(String pattern, List<VisualisationOption> visualisations, ColumnarData columns,
+            Boolean sampled, Double samplingRate, Integer rowLimit, String truncated) {
+        this.pattern = pattern;
+        this.visualisations = visualisations;
+        this.data = null;
+        this.columns = columns;
+        this.sampled = sampled;
+        this.samplingRate = samplingRate;
+        this.rowLimit = rowLimit;
+        this.truncated = truncated;
     }
 
     public String getPattern() {
@@ -23,7 +57,32 @@ public class DFResponse {
         return visualisations;
     }
 
-    public List<Map<String, Object>> getData() {
+    // the rows as a JSON array, already serialised
+    public RawValue getData() {
         return data;
     }
+
+    public ColumnarData getColumns() {
+        return columns;
+    }
+
+    // only set on previews and on queries the cost guard had to downgrade
+    public Boolean getSampled() {
+        return sampled;
+    }
+
+    // fraction of the sampled table's rows read, 1.0 when there was no sample
+    public Double getSamplingRate() {
+        return samplingRate;
+    }
+
+    // the limit the cost guard put on the query in place of the requested one
+    public Integer getRowLimit() {
+        return rowLimit;
+    }
+
+    // set when the governor stopped reading early: rows, bytes or timeout
+    public String getTruncated() {
+        return truncated;
+    }
 }
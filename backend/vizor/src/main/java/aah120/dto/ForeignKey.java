@@ -1,17 +1,23 @@
 package aah120.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 public class ForeignKey {
     
     private final String parentTable;
     private final String parentColumn;
     private final String childTable;
     private final String childColumn;
+    private final String constraintName;
 
-    public ForeignKey(String parentTable, String parentColumn, String childTable, String childColumn) {
+    // one per column, so a foreign key over several columns is several of these sharing a constraint name
+    public ForeignKey(String parentTable, String parentColumn, String childTable, String childColumn,
+            String constraintName) {
         this.parentTable = parentTable;
         this.parentColumn = parentColumn;
         this.childTable = childTable;
         this.childColumn = childColumn;
+        this.constraintName = constraintName;
     }
 
     public String getParentTable() {
@@ -29,4 +35,9 @@ public class ForeignKey {
     public String getChildColumn() {
         return childColumn;
     }
+
+    @JsonIgnore
+    public String getConstraintName() {
+        return constraintName;
+    }
 }
@@ -0,0 +1,48 @@
+package aah120.dto;
+
+public class GovernorStats {
+
+    private final String endpoint;
+    private final long queries;
+    private final long truncatedRows;
+    private final long truncatedBytes;
+    private final long timedOut;
+    private final long cancelled;
+
+    public GovernorStats(String endpoint, long queries, long truncatedRows, long truncatedBytes, long timedOut,
+            long cancelled) {
+        this.endpoint = endpoint;
+        this.queries = queries;
+        this.truncatedRows = truncatedRows;
+        this.truncatedBytes = truncatedBytes;
+        this.timedOut = timedOut;
+        this.cancelled = cancelled;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    // governed fetches started, background jobs included
+    public long getQueries() {
+        return queries;
+    }
+
+    // results cut short at the row cap
+    public long getTruncatedRows() {
+        return truncatedRows;
+    }
+
+    // results cut short at the memory budget
+    public long getTruncatedBytes() {
+        return truncatedBytes;
+    }
+
+    public long getTimedOut() {
+        return timedOut;
+    }
+
+    public long getCancelled() {
+        return cancelled;
+    }
+}
@@ -0,0 +1,57 @@
+package aah120.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class JobStatus {
+
+    private final String id;
+    private final String state;
+    private final long rowCount;
+    private final long elapsedMillis;
+    private final long timeoutMillis;
+    private final String truncated;
+    private final String error;
+
+    public JobStatus(String id, String state, long rowCount, long elapsedMillis, long timeoutMillis,
+            String truncated, String error) {
+        this.id = id;
+        this.state = state;
+        this.rowCount = rowCount;
+        this.elapsedMillis = elapsedMillis;
+        this.timeoutMillis = timeoutMillis;
+        this.truncated = truncated;
+        this.error = error;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    // one of QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED, TIMED_OUT
+    public String getState() {
+        return state;
+    }
+
+    // rows fetched so far
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    // set once the job succeeded with a result its budget cut short: rows or bytes
+    public String getTruncated() {
+        return truncated;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,58 @@
+package aah120.dto;
+
+public class PoolStats {
+
+    private final String connectionKey;
+    private final int active;
+    private final int idle;
+    private final int maxTotal;
+    private final long borrows;
+    private final long saturatedBorrows;
+    private final double meanWaitMillis;
+    private final double maxWaitMillis;
+
+    public PoolStats(String connectionKey, int active, int idle, int maxTotal, long borrows, long saturatedBorrows,
+            double meanWaitMillis, double maxWaitMillis) {
+        this.connectionKey = connectionKey;
+        this.active = active;
+        this.idle = idle;
+        this.maxTotal = maxTotal;
+        this.borrows = borrows;
+        this.saturatedBorrows = saturatedBorrows;
+        this.meanWaitMillis = meanWaitMillis;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public String getConnectionKey() {
+        return connectionKey;
+    }
+
+    public int getActive() {
+        return active;
+    }
+
+    public int getIdle() {
+        return idle;
+    }
+
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    public long getBorrows() {
+        return borrows;
+    }
+
+    // borrows that found every connection in use and had to wait
+    public long getSaturatedBorrows() {
+        return saturatedBorrows;
+    }
+
+    public double getMeanWaitMillis() {
+        return meanWaitMillis;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+}
@@ -1,6 +1,12 @@
 package aah120.dto;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
 
 public class TableMetadata {
     
@@ -9,11 +15,42 @@ public class TableMetadata {
     private final List<String> primaryKeys;
     private final List<ForeignKey> foreignKeys;
 
+    // lookups derived from the lists above, indexed by column position
+    private final Map<String, Integer> columnIndexes;
+    private final BitSet primaryKeyColumns;
+    private final BitSet foreignKeyColumns;
+    private final Map<String, List<ForeignKey>> foreignKeysByColumn;
+
     public TableMetadata(String tableName, List<Column> columns, List<String> primaryKeys, List<ForeignKey> foreignKeys) {
         this.tableName = tableName;
         this.columns = columns;
         this.primaryKeys = primaryKeys;
         this.foreignKeys = foreignKeys;
+
+        this.columnIndexes = new HashMap<>();
+        for (int i = 0; i < columns.size(); i++) {
+            columnIndexes.put(columns.get(i).getName(), i);
+        }
+
+        this.foreignKeysByColumn = new HashMap<>();
+        for (ForeignKey fk : foreignKeys) {
+            foreignKeysByColumn.computeIfAbsent(fk.getChildColumn(), c -> new ArrayList<>()).add(fk);
+        }
+
+        this.primaryKeyColumns = new BitSet(columns.size());
+        this.foreignKeyColumns = new BitSet(columns.size());
+        for (String pk : primaryKeys) {
+            Integer index = columnIndexes.get(pk);
+            if (index != null) {
+                primaryKeyColumns.set(index);
+            }
+        }
+        for (String fkColumn : foreignKeysByColumn.keySet()) {
+            Integer index = columnIndexes.get(fkColumn);
+            if (index != null) {
+                foreignKeyColumns.set(index);
+            }
+        }
     }
 
     public String getTableName() {
@@ -31,4 +68,28 @@ public class TableMetadata {
     public List<ForeignKey> getForeignKeys() {
         return foreignKeys;
     }
+
+    public boolean hasColumn(String name) {
+        return columnIndexes.containsKey(name);
+    }
+
+    public boolean isPrimaryKey(String name) {
+        Integer index = columnIndexes.get(name);
+        return index != null && primaryKeyColumns.get(index);
+    }
+
+    // every foreign key the column takes part in, in declaration order; empty when it is not a foreign key
+    public List<ForeignKey> getForeignKeys(String childColumn) {
+        return foreignKeysByColumn.getOrDefault(childColumn, List.of());
+    }
+
+    @JsonIgnore
+    public BitSet getPrimaryKeyColumns() {
+        return (BitSet) primaryKeyColumns.clone();
+    }
+
+    @JsonIgnore
+    public BitSet getForeignKeyColumns() {
+        return (BitSet) foreignKeyColumns.clone();
+    }
 }
@@ -0,0 +1,140 @@
+package aah120.api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import aah120.dto.Column;
+import aah120.dto.ForeignKey;
+import aah120.dto.TableMetadata;
+
+class JoinPlanTest {
+
+  private static final TableMetadata CUSTOMER = table("customer", List.of("id", "name"), List.of("id"), List.of());
+  private static final TableMetadata ORDERS = table("orders", List.of("id", "customer_id", "total"), List.of("id"),
+      List.of(new ForeignKey("customer", "id", "orders", "customer_id", "orders_customer_fk")));
+  private static final TableMetadata REVIEW = table("review", List.of("id", "customer_id", "stars"), List.of("id"),
+      List.of(new ForeignKey("customer", "id", "review", "customer_id", "review_customer_fk")));
+  private static final TableMetadata ORDER_LINE = table("order_line", List.of("order_no", "line_no", "price"),
+      List.of("order_no", "line_no"), List.of());
+  private static final TableMetadata SHIPMENT = table("shipment", List.of("id", "order_no", "line_no", "qty"),
+      List.of("id"), List.of(new ForeignKey("order_line", "order_no", "shipment", "order_no", "shipment_line_fk"),
+          new ForeignKey("order_line", "line_no", "shipment", "line_no", "shipment_line_fk")));
+  private static final TableMetadata WAREHOUSE = table("warehouse", List.of("code"), List.of("code"), List.of());
+
+  private final ForeignKeyGraph graph = new ForeignKeyGraph(
+      List.of(CUSTOMER, ORDERS, REVIEW, ORDER_LINE, SHIPMENT, WAREHOUSE));
+
+  @Test
+  void singleTableIsReadAsIs() {
+    JoinPlan plan = JoinPlan.plan(graph, List.of("orders", "orders"));
+
+    assertEquals(List.of("orders"), plan.getTableNames());
+    assertTrue(plan.isAnchored());
+    assertFalse(plan.isJoined());
+    assertEquals(List.of("orders"), plan.from(List.of("orders"), Map.of()));
+  }
+
+  @Test
+  void childAnchorsTheJoinWhateverOrderTheTablesAreAskedIn() {
+    JoinPlan plan = JoinPlan.plan(graph, List.of("customer", "orders"));
+
+    assertEquals(List.of("orders", "customer"), plan.getTableNames());
+    assertTrue(plan.isAnchored());
+    assertTrue(plan.isJoined());
+  }
+
+  @Test
+  void parentOfTwoJoinedChildrenIsNotAnchored() {
+    JoinPlan plan = JoinPlan.plan(graph, List.of("orders", "review"));
+
+    assertEquals(List.of("orders", "customer", "review"), plan.getTableNames());
+    assertFalse(plan.isAnchored());
+  }
+
+  @Test
+  void differentlyNamedKeyIsJoinedOn() {
+    JoinPlan plan = JoinPlan.plan(graph, List.of("customer", "orders"));
+
+    List<String> from = plan.from(List.of("orders", "customer"),
+        Map.of("orders", columns("total"), "customer", columns("name")));
+
+    assertEquals(List.of("(SELECT total, customer_id FROM orders) orders JOIN (SELECT name, id FROM customer) "
+        + "customer ON orders.customer_id = customer.id"), from);
+  }
+
+  @Test
+  void compositeKeyWithSharedNamesIsJoinedUsingEveryColumn() {
+    JoinPlan plan = JoinPlan.plan(graph, List.of("order_line", "shipment"));
+
+    List<String> from = plan.from(List.of("shipment", "order_line"),
+        Map.of("shipment", columns("qty"), "order_line", columns("price")));
+
+    assertEquals(List.of("(SELECT qty, order_no, line_no FROM shipment) shipment JOIN (SELECT price, order_no, "
+        + "line_no FROM order_line) order_line USING (order_no, line_no)"), from);
+  }
+
+  @Test
+  void fromItemsStandInForTheirTables() {
+    JoinPlan plan = JoinPlan.plan(graph, List.of("customer", "orders"));
+
+    List<String> from = plan.from(List.of("orders TABLESAMPLE SYSTEM (1)", "customer"),
+        Map.of("orders", columns("total")));
+
+    assertEquals(List.of("(SELECT total, customer_id FROM orders TABLESAMPLE SYSTEM (1)) orders JOIN (SELECT id "
+        + "FROM customer) customer ON orders.customer_id = customer.id"), from);
+  }
+
+  @Test
+  void unnamedForeignKeyIsJoinedByItsOwnColumn() {
+    TableMetadata note = table("note", List.of("id", "customer_id"), List.of("id"),
+        List.of(new ForeignKey("customer", "id", "note", "customer_id", null)));
+    ForeignKeyGraph unnamed = new ForeignKeyGraph(List.of(CUSTOMER, note));
+
+    List<String> from = JoinPlan.plan(unnamed, List.of("customer", "note")).from(List.of("note", "customer"),
+        Map.of("customer", columns("name")));
+
+    assertEquals(List.of("(SELECT customer_id FROM note) note JOIN (SELECT name, id FROM customer) customer ON "
+        + "note.customer_id = customer.id"), from);
+  }
+
+  @Test
+  void columnInMoreThanOneJoinedTableIsRejected() {
+    JoinPlan plan = JoinPlan.plan(graph, List.of("customer", "orders"));
+
+    assertThrows(InvalidRequestException.class,
+        () -> plan.from(List.of("orders", "customer"), Map.of("orders", columns("id"), "customer", columns("id"))));
+  }
+
+  @Test
+  void tablesWithNoForeignKeyPathAreRejected() {
+    assertThrows(InvalidRequestException.class, () -> JoinPlan.plan(graph, List.of("orders", "warehouse")));
+  }
+
+  private static Set<String> columns(String... names) {
+    return new LinkedHashSet<>(List.of(names));
+  }
+
+  private static TableMetadata table(String name, List<String> columnNames, List<String> primaryKeys,
+      List<ForeignKey> foreignKeys) {
+
+    List<Column> columns = new ArrayList<>();
+    for (String columnName : columnNames) {
+      Column column = new Column(columnName, "int4", name);
+      column.setPrimaryKey(primaryKeys.contains(columnName));
+      column.setForeignKey(foreignKeys.stream().anyMatch(fk -> fk.getChildColumn().equals(columnName)));
+      columns.add(column);
+    }
+
+    return new TableMetadata(name, columns, primaryKeys, foreignKeys);
+  }
+}
@@ -0,0 +1,104 @@
+package aah120.api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+class KeysetPagerTest {
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final KeysetPager pager = new KeysetPager(new JsonRowSerializer(objectMapper), objectMapper, 1000, 5000);
+
+  @Test
+  void firstPageHasNoSeekAndTheDefaultPageSize() {
+    Keyset keyset = pager.keyset(List.of("id"), 0, null);
+
+    assertNull(keyset.getAfter());
+    assertEquals(1000, keyset.getPageSize());
+    assertEquals(5000, pager.keyset(List.of("id"), 100000, "").getPageSize());
+  }
+
+  @Test
+  void cursorRoundTripsItsKeyValues() {
+    List<String> keys = List.of("customer_id", "placed_on");
+    String cursor = pager.encode(keys, List.of("42", "2023-01-31"));
+
+    Keyset keyset = pager.keyset(keys, 10, cursor);
+
+    assertEquals(List.of("42", "2023-01-31"), keyset.getAfter());
+    assertEquals(10, keyset.getPageSize());
+  }
+
+  @Test
+  void cursorRoundTripsNullKeyValues() {
+    List<String> keys = List.of("region_id", "store_id");
+    String cursor = pager.encode(keys, Arrays.asList(null, "7"));
+
+    assertEquals(Arrays.asList(null, "7"), pager.keyset(keys, 10, cursor).getAfter());
+  }
+
+  @Test
+  void cursorForOtherKeysIsRejected() {
+    String cursor = pager.encode(List.of("id"), List.of("1"));
+
+    assertThrows(InvalidRequestException.class, () -> pager.keyset(List.of("other_id"), 10, cursor));
+    assertThrows(InvalidRequestException.class, () -> pager.keyset(List.of("id", "other_id"), 10, cursor));
+  }
+
+  @Test
+  void malformedCursorIsRejected() {
+    assertThrows(InvalidRequestException.class, () -> pager.keyset(List.of("id"), 10, "not base64!"));
+    assertThrows(InvalidRequestException.class, () -> pager.keyset(List.of("id"), 10, encode("[1, 2]")));
+    assertThrows(InvalidRequestException.class,
+        () -> pager.keyset(List.of("id"), 10, encode("{\"keys\": [\"id\"], \"after\": [1]}")));
+  }
+
+  @Test
+  void seekComparesKeyByKeyWithNullsLast() {
+    Keyset keyset = new Keyset(List.of("a", "b"), List.of("1", "2"), 10);
+    StringBuilder sb = new StringBuilder();
+    List<Object> params = new ArrayList<>();
+
+    keyset.appendSeek(sb, params);
+
+    assertEquals(" AND ((a > ? OR a IS NULL) OR a = ? AND (b > ? OR b IS NULL))", sb.toString());
+    assertEquals(List.of(new ChartQuery.UntypedParam("1"), new ChartQuery.UntypedParam("1"),
+        new ChartQuery.UntypedParam("2")), params);
+  }
+
+  @Test
+  void seekAfterNullKeyMatchesOnlyTheRestOfTheNullGroup() {
+    Keyset keyset = new Keyset(List.of("a", "b"), Arrays.asList(null, "2"), 10);
+    StringBuilder sb = new StringBuilder();
+    List<Object> params = new ArrayList<>();
+
+    keyset.appendSeek(sb, params);
+
+    assertEquals(" AND (a IS NULL AND (b > ? OR b IS NULL))", sb.toString());
+    assertEquals(List.of(new ChartQuery.UntypedParam("2")), params);
+  }
+
+  @Test
+  void seekAfterAllNullKeysMatchesNothing() {
+    Keyset keyset = new Keyset(List.of("a"), Arrays.asList((String) null), 10);
+    StringBuilder sb = new StringBuilder();
+
+    keyset.appendSeek(sb, new ArrayList<>());
+
+    assertEquals(" AND FALSE", sb.toString());
+  }
+
+  private static String encode(String json) {
+    return Base64.getUrlEncoder().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+  }
+}
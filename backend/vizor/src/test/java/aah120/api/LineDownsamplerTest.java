@@ -0,0 +1,95 @@
+package aah120.api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class LineDownsamplerTest {
+
+  @Test
+  void bucketsSplitTheInnerRowsAndTheLastEndsBeforeTheLastRow() {
+    LineDownsampler.Series series = new LineDownsampler.Series(10, 5);
+
+    // rows 1 .. 8 in three buckets
+    assertEquals(3, series.bucketEnd(0));
+    assertEquals(6, series.bucketEnd(1));
+    assertEquals(9, series.bucketEnd(2));
+  }
+
+  @Test
+  void bucketsStayExactWhenTheRowsDoNotDivideEvenly() {
+    long rows = 1_000_003;
+    int points = 97;
+    LineDownsampler.Series series = new LineDownsampler.Series(rows, points);
+
+    long previous = 1;
+    for (int bucket = 0; bucket < points - 2; bucket++) {
+      long end = series.bucketEnd(bucket);
+      assertTrue(end > previous);
+      previous = end;
+    }
+    assertEquals(rows - 1, previous);
+  }
+
+  @Test
+  void keepsTheFirstAndLastPointAndOnePerBucket() {
+    List<LineDownsampler.Point> points = line(1000);
+    List<LineDownsampler.Point> kept = downsample(points, 50);
+
+    assertEquals(50, kept.size());
+    assertSame(points.get(0), kept.get(0));
+    assertSame(points.get(999), kept.get(49));
+  }
+
+  @Test
+  void keepsEveryPointOfAShortSeries() {
+    List<LineDownsampler.Point> points = line(4);
+
+    assertEquals(points, downsample(points, 10));
+  }
+
+  @Test
+  void keepsASpike() {
+    List<LineDownsampler.Point> points = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      points.add(new LineDownsampler.Point(i, i == 37 ? 1000 : 0, new byte[0]));
+    }
+
+    assertTrue(downsample(points, 10).contains(points.get(37)));
+  }
+
+  @Test
+  void isCompleteOnceEveryRowIsRead() {
+    LineDownsampler.Series series = new LineDownsampler.Series(3, 10);
+    for (LineDownsampler.Point point : line(3)) {
+      assertFalse(series.isComplete());
+      series.add(point);
+    }
+
+    assertTrue(series.isComplete());
+  }
+
+  private static List<LineDownsampler.Point> downsample(List<LineDownsampler.Point> points, int target) {
+    LineDownsampler.Series series = new LineDownsampler.Series(points.size(), target);
+
+    List<LineDownsampler.Point> kept = new ArrayList<>();
+    for (LineDownsampler.Point point : points) {
+      kept.addAll(series.add(point));
+    }
+    return kept;
+  }
+
+  private static List<LineDownsampler.Point> line(int rows) {
+    List<LineDownsampler.Point> points = new ArrayList<>();
+    for (int i = 0; i < rows; i++) {
+      points.add(new LineDownsampler.Point(i, Math.sin(i / 10.0), new byte[0]));
+    }
+    return points;
+  }
+}
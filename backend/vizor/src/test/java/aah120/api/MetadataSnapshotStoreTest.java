@@ -0,0 +1,161 @@
+package aah120.api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import aah120.dto.Column;
+import aah120.dto.ForeignKey;
+import aah120.dto.TableMetadata;
+
+class MetadataSnapshotStoreTest {
+
+  @TempDir
+  Path directory;
+
+  @Test
+  void snapshotRoundTrips() {
+    MetadataSnapshotStore store = new MetadataSnapshotStore(directory.toString());
+    store.save(new MetadataSnapshot("db", 7, "fingerprint", List.of(orderLine(), shipment())));
+
+    MetadataSnapshot loaded = store.load("db").get();
+
+    assertEquals("db", loaded.getConnectionKey());
+    assertEquals(7, loaded.getVersion());
+    assertEquals("fingerprint", loaded.getFingerprint());
+    assertEquals(List.of("order_line", "shipment"),
+        loaded.getTables().stream().map(TableMetadata::getTableName).toList());
+
+    TableMetadata orderLine = loaded.getTable("order_line");
+    assertEquals(List.of("order_no", "line_no"), orderLine.getPrimaryKeys());
+    assertEquals("timetz", column(orderLine, "picked_at").getType());
+    assertTrue(column(orderLine, "line_no").isPrimaryKey());
+    assertFalse(column(orderLine, "picked_at").isPrimaryKey());
+
+    TableMetadata shipment = loaded.getTable("shipment");
+    Column orderNo = column(shipment, "order_no");
+    assertTrue(orderNo.isForeignKey());
+    assertEquals("shipment", orderNo.getTableName());
+    assertEquals(2, shipment.getForeignKeys().size());
+    for (ForeignKey fk : shipment.getForeignKeys()) {
+      assertEquals("order_line", fk.getParentTable());
+      assertEquals(fk.getChildColumn(), fk.getParentColumn());
+      assertEquals("shipment", fk.getChildTable());
+      assertEquals("shipment_line_fk", fk.getConstraintName());
+    }
+
+    // a composite key still resolves to every one of its columns after loading
+    assertEquals(2, loaded.getForeignKeyGraph().getConstraint(shipment.getForeignKeys().get(1)).size());
+  }
+
+  @Test
+  void unnamedForeignKeyRoundTrips() {
+    MetadataSnapshotStore store = new MetadataSnapshotStore(directory.toString());
+    Column orderNo = new Column("order_no", "int4", "note");
+    orderNo.setForeignKey(true);
+    TableMetadata note = new TableMetadata("note", List.of(orderNo), List.of(),
+        List.of(new ForeignKey("order_line", "order_no", "note", "order_no", null)));
+    store.save(new MetadataSnapshot("db", 1, null, List.of(note)));
+
+    ForeignKey loaded = store.load("db").get().getTable("note").getForeignKeys().get(0);
+
+    assertNull(loaded.getConstraintName());
+    assertEquals("order_no", loaded.getChildColumn());
+  }
+
+  @Test
+  void savingLeavesNoTemporaryFiles() throws IOException {
+    new MetadataSnapshotStore(directory.toString()).save(new MetadataSnapshot("db", 1, null, List.of(shipment())));
+
+    try (Stream<Path> files = Files.list(directory)) {
+      assertEquals(List.of(directory.resolve("db.snapshot")), files.toList());
+    }
+  }
+
+  @Test
+  void missingFingerprintRoundTrips() {
+    MetadataSnapshotStore store = new MetadataSnapshotStore(directory.toString());
+    store.save(new MetadataSnapshot("db", 1, null, List.of()));
+
+    MetadataSnapshot loaded = store.load("db").get();
+
+    assertNull(loaded.getFingerprint());
+    assertTrue(loaded.getTables().isEmpty());
+  }
+
+  @Test
+  void saveReplacesThePreviousSnapshot() {
+    MetadataSnapshotStore store = new MetadataSnapshotStore(directory.toString());
+    store.save(new MetadataSnapshot("db", 1, "a", List.of(orderLine())));
+    store.save(new MetadataSnapshot("db", 2, "b", List.of(shipment())));
+
+    MetadataSnapshot loaded = store.load("db").get();
+
+    assertEquals(2, loaded.getVersion());
+    assertNull(loaded.getTable("order_line"));
+  }
+
+  @Test
+  void missingSnapshotIsAMiss() {
+    assertTrue(new MetadataSnapshotStore(directory.toString()).load("db").isEmpty());
+  }
+
+  @Test
+  void snapshotOfAnotherFormatVersionIsAMiss() throws IOException {
+    try (DataOutputStream out = new DataOutputStream(
+        new GZIPOutputStream(Files.newOutputStream(directory.resolve("db.snapshot"))))) {
+      out.writeInt(0x565a4d53);
+      out.writeInt(2);
+      out.writeLong(3);
+    }
+
+    assertTrue(new MetadataSnapshotStore(directory.toString()).load("db").isEmpty());
+  }
+
+  @Test
+  void corruptSnapshotIsAMiss() throws IOException {
+    Files.write(directory.resolve("db.snapshot"), new byte[] { 1, 2, 3 });
+
+    assertTrue(new MetadataSnapshotStore(directory.toString()).load("db").isEmpty());
+  }
+
+  private static Column column(TableMetadata table, String name) {
+    return table.getColumns().stream().filter(col -> col.getName().equals(name)).findFirst().get();
+  }
+
+  private static TableMetadata orderLine() {
+    Column orderNo = new Column("order_no", "int4", "order_line");
+    orderNo.setPrimaryKey(true);
+    Column lineNo = new Column("line_no", "int4", "order_line");
+    lineNo.setPrimaryKey(true);
+    Column pickedAt = new Column("picked_at", "timetz", "order_line");
+
+    return new TableMetadata("order_line", List.of(orderNo, lineNo, pickedAt), List.of("order_no", "line_no"),
+        List.of());
+  }
+
+  private static TableMetadata shipment() {
+    Column id = new Column("id", "int4", "shipment");
+    id.setPrimaryKey(true);
+    Column orderNo = new Column("order_no", "int4", "shipment");
+    orderNo.setForeignKey(true);
+    Column lineNo = new Column("line_no", "int4", "shipment");
+    lineNo.setForeignKey(true);
+
+    return new TableMetadata("shipment", List.of(id, orderNo, lineNo), List.of("id"),
+        List.of(new ForeignKey("order_line", "order_no", "shipment", "order_no", "shipment_line_fk"),
+            new ForeignKey("order_line", "line_no", "shipment", "line_no", "shipment_line_fk")));
+  }
+}
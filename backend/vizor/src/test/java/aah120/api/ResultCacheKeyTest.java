@@ -0,0 +1,42 @@
+package aah120.api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class ResultCacheKeyTest {
+
+  @Test
+  void collapsesWhitespaceAndTrimsTheEnds() {
+    assertEquals("SELECT a, b FROM t WHERE c > ?",
+        ResultCacheKey.normalize("  SELECT a,\n\tb  FROM t\r\n WHERE c > ?  "));
+  }
+
+  @Test
+  void leavesQuotedLiteralsAndIdentifiersAlone() {
+    assertEquals("SELECT \"a  |  b\" FROM t WHERE c = 'x \n y'",
+        ResultCacheKey.normalize("SELECT  \"a  |  b\"  FROM t WHERE c =  'x \n y'"));
+  }
+
+  @Test
+  void formattingDoesNotSplitAnEntry() {
+    ResultCacheKey key = new ResultCacheKey("db", "rows/vf-execute", "SELECT a\nFROM t LIMIT ?",
+        List.of(new ChartQuery.LimitParam(10)));
+    ResultCacheKey reformatted = new ResultCacheKey("db", "rows/vf-execute", "SELECT a FROM   t LIMIT ?",
+        List.of(new ChartQuery.LimitParam(10)));
+
+    assertEquals(key, reformatted);
+    assertEquals(key.hashCode(), reformatted.hashCode());
+  }
+
+  @Test
+  void paramsAndConnectionSplitEntries() {
+    ResultCacheKey key = new ResultCacheKey("db", "rows/vf-execute", "SELECT a FROM t WHERE b = ?", List.of(1L));
+
+    assertNotEquals(key, new ResultCacheKey("db", "rows/vf-execute", "SELECT a FROM t WHERE b = ?", List.of(2L)));
+    assertNotEquals(key, new ResultCacheKey("other", "rows/vf-execute", "SELECT a FROM t WHERE b = ?", List.of(1L)));
+  }
+}
@@ -1,6 +1,7 @@
 import React, { useState, useEffect } from "react";
 import { Avatar, Checkbox, Flex, Layout, Menu, Spin, Table, Tooltip, Modal, Input, InputNumber, Select } from 'antd';
 import 'antd/dist/reset.css';
+import { sessionHeaders } from '../session';
 import { Content, Header } from "antd/es/layout/layout";
 import Bar from "../components/charts/basic/Bar";
 import Bubble from "../components/charts/basic/Bubble";
@@ -145,6 +146,7 @@ function DataFirst() {
         method: 'GET',
         headers: {
           'Content-Type': 'application/json',
+          ...sessionHeaders(),
         },
       });
 
@@ -227,6 +229,7 @@ function DataFirst() {
       method: 'POST',
       headers: {
         'Content-Type': 'application/json',
+        ...sessionHeaders(),
       },
       body: JSON.stringify(formData),
     });
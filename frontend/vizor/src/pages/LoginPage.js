@@ -2,6 +2,7 @@ import React, { useEffect, useState } from 'react';
 import { firestore } from '../firebaseconfig';
 import { addDoc, collection, getDocs } from 'firebase/firestore';
 import { Form, Input, Button, AutoComplete, Modal } from 'antd';
+import { saveSession } from '../session';
 
 function LoginPage() {
 	const [username, setUsername] = useState('');
@@ -64,6 +65,8 @@ function LoginPage() {
 				return;
 			}
 
+			saveSession(response);
+
 			const values = await form.validateFields();
 
 			if (!usernameOptions.map(e => e.value).includes(values.username)) {
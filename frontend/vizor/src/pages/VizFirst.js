@@ -1,6 +1,7 @@
 import React, { useState, useEffect } from "react";
 import { Avatar, Checkbox, Flex, Layout, Menu, Spin, Tooltip, Modal, InputNumber, Input, Select } from 'antd';
 import 'antd/dist/reset.css';
+import { sessionHeaders } from '../session';
 import { Content, Header } from "antd/es/layout/layout";
 import Bar from "../components/charts/basic/Bar";
 import Bubble from "../components/charts/basic/Bubble";
@@ -150,6 +151,7 @@ function VizFirst() {
         method: 'GET',
         headers: {
           'Content-Type': 'application/json',
+          ...sessionHeaders(),
         },
       });
 
@@ -187,6 +189,7 @@ function VizFirst() {
       method: 'POST',
       headers: {
         'Content-Type': 'application/json',
+        ...sessionHeaders(),
       },
       body: JSON.stringify({
         visId: id,
@@ -241,6 +244,7 @@ function VizFirst() {
       method: 'POST',
       headers: {
         'Content-Type': 'application/json',
+        ...sessionHeaders(),
       },
       body: JSON.stringify({
         visId: selectedChartType,
@@ -597,6 +601,7 @@ function VizFirst() {
       method: 'POST',
       headers: {
         'Content-Type': 'application/json',
+        ...sessionHeaders(),
       },
       body: JSON.stringify(formData),
     });
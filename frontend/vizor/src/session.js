@@ -0,0 +1,11 @@
+// the backend answers each login with a session id, which every later request sends back
+const SESSION_HEADER = 'X-Vizor-Session';
+
+export function saveSession(response) {
+  sessionStorage.setItem(SESSION_HEADER, response.headers.get(SESSION_HEADER));
+}
+
+export function sessionHeaders() {
+  const session = sessionStorage.getItem(SESSION_HEADER);
+  return session ? { [SESSION_HEADER]: session } : {};
+}